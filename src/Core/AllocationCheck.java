@@ -0,0 +1,78 @@
+package byow.Core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Checks that Game.tickTime doesn't allocate once a game has warmed up, in every ChaseMode.
+ * Run it with "java byow.Core.AllocationCheck"; it prints how much each mode allocated, and exits
+ * with status 1 if any of them allocated in more than the odd tick.
+ *
+ * Allocation is counted with the JVM's count of the bytes each thread has allocated, read before
+ * and after every tick. Buffers like the search buffers and the list of path cells still grow
+ * now and then after the warm-up, the first time they're too small, so one tick in
+ * ALLOCATING_TICKS_PER may allocate; something allocated every tick (or every few) fails.
+ * Games are made without an InputLog or a Journal, which grow with the game on purpose.
+ */
+public class AllocationCheck {
+    private static final int SEEDS = 10;
+    private static final int WARM_UP_TICKS = 4000;
+    private static final int MEASURED_TICKS = 2000;
+    /* at most one measured tick in this many can allocate */
+    private static final int ALLOCATING_TICKS_PER = 1000;
+    /* the lights are toggled this often, so ticks are measured both in the dark and lit */
+    private static final int LIGHTS_INTERVAL = 500;
+
+    public static void main(String[] args) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM can't count the bytes a thread allocates.");
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        boolean passed = true;
+        for (ChaseMode mode : ChaseMode.values()) {
+            long bytes = 0;
+            int allocatingTicks = 0;
+            for (long seed = 1; seed <= SEEDS; seed++) {
+                WorldGenerator generator = new WorldGenerator(Engine.WIDTH, Engine.HEIGHT, seed,
+                        Difficulty.HARD);
+                Game game = new Game(generator.generateWorld(), new Random(seed),
+                        Difficulty.HARD, generator.getRooms());
+                game.setChaseMode(mode);
+                Random moves = new Random(seed);
+                for (int k = 0; k < WARM_UP_TICKS; k++) {
+                    game.tickTime(randomMove(moves));
+                }
+                for (int k = 0; k < MEASURED_TICKS; k++) {
+                    char move = randomMove(moves);
+                    long before = threads.getThreadAllocatedBytes(thread);
+                    game.tickTime(move);
+                    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+                    if (allocated > 0) {
+                        bytes += allocated;
+                        allocatingTicks++;
+                    }
+                    if (k % LIGHTS_INTERVAL == 0) {
+                        game.toggleDark();
+                    }
+                }
+            }
+            int ticks = SEEDS * MEASURED_TICKS;
+            boolean ok = allocatingTicks <= ticks / ALLOCATING_TICKS_PER;
+            System.out.println(mode + ": " + bytes + " bytes allocated in " + allocatingTicks
+                    + " of " + ticks + " ticks" + (ok ? "" : " - FAILED"));
+            passed = passed && ok;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static char randomMove(Random random) {
+        return "wasd".charAt(random.nextInt(4));
+    }
+}
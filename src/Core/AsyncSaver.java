@@ -0,0 +1,212 @@
+package byow.Core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a game in the background, so the game thread doesn't stop while the save is encoded and
+ * written. Saving only takes a GameSnapshot (or a copy of the game's InputLog) on the calling
+ * thread; encoding it and writing it (and forcing it to disk) happen on the saver's own thread.
+ * This makes it cheap enough to autosave every so often while the game is played.
+ *
+ * Saves are written in the order they're made, but if a save is made while an older one is still
+ * waiting to be written, the older one is skipped, since the newer one replaces it anyway.
+ * Saves to a file are written next to it and moved over it, so a crash in the middle of one
+ * never leaves a half-written save.
+ */
+public class AsyncSaver {
+    public static final long DEFAULT_AUTOSAVE_INTERVAL_MS = 30000;
+
+    private final File _file;
+    private final SaveStore _store;
+    private final int _slot;
+    private final SaveCodec.Format _format;
+    private final long _autosaveIntervalNs;
+    private final ExecutorService _executor;
+
+    /* only used by the game thread */
+    private long _lastSave = System.nanoTime();
+
+    /* The fields below are shared with the saver's thread; use them inside synchronized. */
+    /* the newest save that hasn't been started yet (a GameSnapshot, a copy of an InputLog, or
+    the bytes of the save), or null */
+    private Object _waiting;
+    /* finishes when the newest save has been written */
+    private Future<Void> _newest;
+
+    /**
+     * Makes a saver that saves to file in the given format (see SaveCodec.save).
+     */
+    public AsyncSaver(File file, SaveCodec.Format format) {
+        this(file, null, 0, format, DEFAULT_AUTOSAVE_INTERVAL_MS);
+    }
+
+    /**
+     * Makes a saver that saves to a slot of store in the given format.
+     */
+    public AsyncSaver(SaveStore store, int slot, SaveCodec.Format format) {
+        this(null, store, slot, format, DEFAULT_AUTOSAVE_INTERVAL_MS);
+    }
+
+    /**
+     * @param autosaveIntervalMs how long autosave waits after a save before saving again.
+     */
+    AsyncSaver(File file, SaveStore store, int slot, SaveCodec.Format format,
+               long autosaveIntervalMs) {
+        _file = file;
+        _store = store;
+        _slot = slot;
+        _format = format;
+        _autosaveIntervalNs = TimeUnit.MILLISECONDS.toNanos(autosaveIntervalMs);
+        _executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Saves game in the background. Must be called on the thread that plays the game.
+     * @return finishes once the save (or a newer one) has been written, and fails (get throws
+     * an ExecutionException) if writing it failed.
+     */
+    public Future<Void> save(Game game) {
+        Object snapshot;
+        if (!SaveCodec.canEncode(game)) {
+            // these can only be serialized, which has to be done before the game changes
+            snapshot = SaveCodec.toBytes(game, _format);
+        } else if (_format == SaveCodec.Format.INPUT_LOG && game._log != null) {
+            // the log only has the events since its keyframe, so copying it is quick
+            snapshot = game._log.copy();
+        } else {
+            snapshot = new GameSnapshot(game);
+        }
+        _lastSave = System.nanoTime();
+        synchronized (this) {
+            // if a save is waiting already, its task will write this one instead
+            boolean noneWaiting = _waiting == null;
+            _waiting = snapshot;
+            if (noneWaiting) {
+                _newest = _executor.submit(this::writeWaiting);
+            }
+            return _newest;
+        }
+    }
+
+    /**
+     * Saves game in the background if it's been running for the autosave interval since it was
+     * last saved. Call this after the game changes. Games that are over aren't saved.
+     */
+    public void autosave(Game game) {
+        if (game.isRunning() && System.nanoTime() - _lastSave >= _autosaveIntervalNs) {
+            save(game);
+        }
+    }
+
+    /**
+     * Waits for every save made so far to be written, and stops the saver's thread. The saver
+     * can't be used afterwards.
+     */
+    public void close() {
+        _executor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (_executor.awaitTermination(1, TimeUnit.DAYS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a save to be written.
+     * @param save a Future returned by save.
+     * @return true iff the save is safely on disk; if it isn't, the reason has been printed.
+     */
+    public static boolean succeeded(Future<Void> save) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    save.get();
+                    return true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return false;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Body of a task on the saver's thread. Encodes and writes the newest save.
+     * Throws (failing the task's Future) if the save couldn't be written.
+     */
+    private Void writeWaiting() throws IOException {
+        Object snapshot;
+        synchronized (this) {
+            snapshot = _waiting;
+            _waiting = null;
+        }
+        try {
+            byte[] bytes;
+            if (snapshot instanceof GameSnapshot) {
+                bytes = SaveCodec.encode((GameSnapshot) snapshot);
+            } else if (snapshot instanceof InputLog) {
+                bytes = SaveCodec.encodeLog((InputLog) snapshot);
+            } else {
+                bytes = (byte[]) snapshot;
+            }
+            if (_store != null) {
+                _store.write(_slot, bytes);
+            } else {
+                writeFile(bytes);
+            }
+        } catch (RuntimeException | IOException e) {
+            // autosaves aren't waited for, so this is the only place their failures show up
+            System.err.println("Couldn't save: " + e);
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * Writes bytes to a temporary file, forces it to disk and moves it over the save file.
+     */
+    private void writeFile(byte[] bytes) throws IOException {
+        Path path = _file.toPath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,58 @@
+package byow.Core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An InputSource that reads keys from a ReadableByteChannel (e.g. a FileChannel or a pipe) as
+ * they're needed, through a fixed size buffer, so an input of any length is read in constant
+ * memory. Every key the game knows is ASCII, so each byte is one key and there's no decoding.
+ * Closing the channel is up to whoever made it.
+ */
+public class ChannelInputSource implements InputSource {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel _channel;
+    /* kept ready to be read from; the keys not read yet are between its position and limit */
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean _finished;
+
+    public ChannelInputSource(ReadableByteChannel channel) {
+        _channel = channel;
+        _buffer.flip();
+    }
+
+    public char getNextKey() {
+        if (!possibleNextInput()) {
+            throw new IllegalStateException("No more input");
+        }
+        return (char) (_buffer.get() & 0xFF);
+    }
+
+    /**
+     * Returns true iff there's another key. Waits for more of the input if the buffer is empty.
+     */
+    public boolean possibleNextInput() {
+        while (!_buffer.hasRemaining() && !_finished) {
+            fill();
+        }
+        return _buffer.hasRemaining();
+    }
+
+    /**
+     * Reads the next part of the input into the buffer.
+     */
+    private void fill() {
+        try {
+            _buffer.clear();
+            if (_channel.read(_buffer) < 0) {
+                _finished = true;
+            }
+            _buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
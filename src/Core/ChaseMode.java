@@ -0,0 +1,22 @@
+package byow.Core;
+
+/**
+ * The ChaseMode enum describes how aggro'd crawlers plan their path to the player.
+ * FLOW_FIELD reads each step from the distance-to-player field the Game shares between all
+ * enemies, so it costs one BFS per tick no matter how many crawlers there are.
+ * A_STAR runs an A* search per crawler which is bounded by the crawler's range, so it costs
+ * something proportional to how close the player is, rather than to the size of the world.
+ * INCREMENTAL keeps each crawler's path between ticks and only repairs the parts that changed,
+ * falling back to a bounded A* search when it can't, or when it can't be sure the repaired path is
+ * still a shortest one.
+ * HIERARCHICAL picks a route through the graph of room entrances the Game keeps for the world, and
+ * only turns the first stretch of it into tiles; it's meant for long chases across large worlds.
+ * NAV_GRAPH runs Dijkstra's over the Game's NavGraph, where every corridor is a single edge.
+ */
+public enum ChaseMode {
+    FLOW_FIELD,
+    A_STAR,
+    INCREMENTAL,
+    HIERARCHICAL,
+    NAV_GRAPH
+}
@@ -0,0 +1,319 @@
+package byow.Core;
+
+import byow.TileEngine.TETile;
+import byow.TileEngine.Tileset;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A world too big to generate all at once, split into CHUNK_SIZE by CHUNK_SIZE chunks that are
+ * only generated when something asks for a tile in them. Only the maxChunks chunks used most
+ * recently are kept; the others are dropped and generated again if they're needed, so the memory
+ * a world takes doesn't depend on its size, only on how much of it is in use at once.
+ *
+ * Each chunk is a small labyrinth of its own, made by WorldGenerator from a seed that only
+ * depends on the world's seed and where the chunk is, so a chunk always comes out the same.
+ * Chunks are walled in, apart from one portal on each side that has a chunk next to it: a gap in
+ * the wall with a hallway to the nearest room. Where the portal goes only depends on the world's
+ * seed and the edge it's on, so the chunks on both sides of an edge agree on it, and every chunk
+ * can be reached from every other one.
+ *
+ * Tiles that are changed with set are remembered separately from the chunks, and put back when
+ * a chunk is generated again, so changes aren't lost when a chunk is dropped.
+ *
+ * Even reading a tile changes which chunks were used most recently, so every method locks the
+ * world, and it can be shared between threads (e.g. the game's and the render thread).
+ * Serializing a world only keeps its seed and its changed tiles; the chunks are generated again.
+ */
+public class ChunkedWorld implements Serializable {
+    public static final int CHUNK_SIZE = 64;
+    public static final int DEFAULT_MAX_CHUNKS = 256;
+
+    /* the sides of a chunk that can have portals, for portal() */
+    private static final int EAST = 0;
+    private static final int NORTH = 1;
+    /* salt for spawnSeed */
+    private static final int SPAWNS = 2;
+
+    private final long _seed;
+    private final Difficulty _difficulty;
+    private final int _chunksWide;
+    private final int _chunksHigh;
+    private final int _maxChunks;
+    /* the chunks in memory, least recently used first; tile (x, y) of a chunk is [x * CHUNK_SIZE
+    + y] */
+    private transient LinkedHashMap<Long, TETile[]> _chunks;
+    /* for each chunk with changed tiles, the changed tiles by their index in the chunk */
+    private final HashMap<Long, HashMap<Integer, TETile>> _edits = new HashMap<>();
+    private long _generated;
+
+    /**
+     * Makes a world chunksWide by chunksHigh chunks big. Nothing is generated yet.
+     * @param maxChunks how many chunks can be in memory at once.
+     */
+    public ChunkedWorld(long seed, Difficulty difficulty, int chunksWide, int chunksHigh,
+                        int maxChunks) {
+        if (chunksWide <= 0 || chunksHigh <= 0 || maxChunks <= 0) {
+            throw new IllegalArgumentException("World size and chunk limit must be positive.");
+        }
+        if ((long) chunksWide * CHUNK_SIZE > Integer.MAX_VALUE
+                || (long) chunksHigh * CHUNK_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("World is too big.");
+        }
+        _seed = seed;
+        _difficulty = difficulty;
+        _chunksWide = chunksWide;
+        _chunksHigh = chunksHigh;
+        _maxChunks = maxChunks;
+        _chunks = newCache();
+    }
+
+    public ChunkedWorld(long seed, Difficulty difficulty, int chunksWide, int chunksHigh) {
+        this(seed, difficulty, chunksWide, chunksHigh, DEFAULT_MAX_CHUNKS);
+    }
+
+    public int width() {
+        return _chunksWide * CHUNK_SIZE;
+    }
+
+    public int height() {
+        return _chunksHigh * CHUNK_SIZE;
+    }
+
+    public int chunksWide() {
+        return _chunksWide;
+    }
+
+    public int chunksHigh() {
+        return _chunksHigh;
+    }
+
+    /**
+     * Returns the tile at (x, y), generating its chunk if it isn't in memory.
+     * Positions outside the world are Tileset.NOTHING.
+     */
+    public synchronized TETile tile(int x, int y) {
+        if (!inBounds(x, y)) {
+            return Tileset.NOTHING;
+        }
+        return chunk(x / CHUNK_SIZE, y / CHUNK_SIZE)[offset(x, y)];
+    }
+
+    /**
+     * Changes the tile at (x, y). The change is kept even if its chunk is dropped.
+     */
+    public synchronized void set(int x, int y, TETile tile) {
+        if (!inBounds(x, y)) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ") is outside the world.");
+        }
+        long key = key(x / CHUNK_SIZE, y / CHUNK_SIZE);
+        chunk(x / CHUNK_SIZE, y / CHUNK_SIZE)[offset(x, y)] = tile;
+        _edits.computeIfAbsent(key, k -> new HashMap<>()).put(offset(x, y), tile);
+    }
+
+    /**
+     * Makes sure every chunk within radius tiles of (x, y) is in memory, generating the ones that
+     * aren't. Call this for the player and every crawler as they move, so the chunks they're
+     * about to walk into are ready, and the ones around them are the last to be dropped.
+     */
+    public synchronized void loadAround(int x, int y, int radius) {
+        int fromX = Math.max(0, x - radius) / CHUNK_SIZE;
+        int toX = Math.min(width() - 1, x + radius) / CHUNK_SIZE;
+        int fromY = Math.max(0, y - radius) / CHUNK_SIZE;
+        int toY = Math.min(height() - 1, y + radius) / CHUNK_SIZE;
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                chunk(cx, cy);
+            }
+        }
+    }
+
+    /**
+     * Returns the width by height tiles whose bottom left tile is (left, bottom), e.g. the part
+     * of the world on screen, as a TETile[][] for TERenderer.
+     */
+    public synchronized TETile[][] toTiles(int left, int bottom, int width, int height) {
+        TETile[][] tiles = new TETile[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                tiles[x][y] = tile(left + x, bottom + y);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the number of chunks in memory.
+     */
+    public synchronized int loadedChunks() {
+        return _chunks.size();
+    }
+
+    /**
+     * Returns the number of times a chunk has been generated, counting chunks that were dropped
+     * and generated again.
+     */
+    public synchronized long generatedChunks() {
+        return _generated;
+    }
+
+    /**
+     * Returns a seed for placing things in chunk (cx, cy), e.g. enemies. It only depends on the
+     * world's seed and where the chunk is, like the chunk's terrain, but isn't the same seed.
+     */
+    long spawnSeed(int cx, int cy) {
+        return mix(_seed, cx, cy, SPAWNS);
+    }
+
+    /**
+     * Returns chunk (cx, cy), generating it if it isn't in memory, and marks it as just used.
+     */
+    private TETile[] chunk(int cx, int cy) {
+        long key = key(cx, cy);
+        TETile[] chunk = _chunks.get(key);
+        if (chunk == null) {
+            chunk = generateChunk(cx, cy);
+            HashMap<Integer, TETile> edits = _edits.get(key);
+            if (edits != null) {
+                for (Map.Entry<Integer, TETile> edit : edits.entrySet()) {
+                    chunk[edit.getKey()] = edit.getValue();
+                }
+            }
+            _chunks.put(key, chunk);
+            _generated++;
+        }
+        return chunk;
+    }
+
+    /**
+     * Generates chunk (cx, cy) from scratch: a labyrinth from WorldGenerator, with its portals
+     * carved out.
+     */
+    private TETile[] generateChunk(int cx, int cy) {
+        WorldGenerator generator = new WorldGenerator(CHUNK_SIZE, CHUNK_SIZE,
+                mix(_seed, cx, cy, -1), _difficulty);
+        // worldRep[y][x] is 1 for floor and 0 for wall
+        int[][] worldRep = generator.generateLayout();
+        List<Room> rooms = generator.getRooms();
+        if (cx + 1 < _chunksWide) {
+            carvePortal(worldRep, rooms, CHUNK_SIZE - 1, portal(cx, cy, EAST));
+        }
+        if (cx > 0) {
+            carvePortal(worldRep, rooms, 0, portal(cx - 1, cy, EAST));
+        }
+        if (cy + 1 < _chunksHigh) {
+            carvePortalRow(worldRep, rooms, CHUNK_SIZE - 1, portal(cx, cy, NORTH));
+        }
+        if (cy > 0) {
+            carvePortalRow(worldRep, rooms, 0, portal(cx, cy - 1, NORTH));
+        }
+        TETile[] chunk = new TETile[CHUNK_SIZE * CHUNK_SIZE];
+        for (int x = 0; x < CHUNK_SIZE; x++) {
+            for (int y = 0; y < CHUNK_SIZE; y++) {
+                chunk[x * CHUNK_SIZE + y] = worldRep[y][x] == 0 ? Tileset.WALL : Tileset.FLOOR;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Carves a portal in the left or right wall of a chunk, at (x, y), and a hallway from it to
+     * the centre of the nearest room: straight across to the room's column, then up or down.
+     */
+    private static void carvePortal(int[][] worldRep, List<Room> rooms, int x, int y) {
+        int[] centre = nearestCentre(rooms, x, y);
+        for (int i = Math.min(x, centre[0]); i <= Math.max(x, centre[0]); i++) {
+            worldRep[y][i] = 1;
+        }
+        for (int j = Math.min(y, centre[1]); j <= Math.max(y, centre[1]); j++) {
+            worldRep[j][centre[0]] = 1;
+        }
+    }
+
+    /**
+     * Carves a portal in the top or bottom wall of a chunk, at (x, y), and a hallway from it to
+     * the centre of the nearest room: straight up or down to the room's row, then across.
+     */
+    private static void carvePortalRow(int[][] worldRep, List<Room> rooms, int y, int x) {
+        int[] centre = nearestCentre(rooms, x, y);
+        for (int j = Math.min(y, centre[1]); j <= Math.max(y, centre[1]); j++) {
+            worldRep[j][x] = 1;
+        }
+        for (int i = Math.min(x, centre[0]); i <= Math.max(x, centre[0]); i++) {
+            worldRep[centre[1]][i] = 1;
+        }
+    }
+
+    /**
+     * Returns the centre of the room nearest to (x, y), or the centre of the chunk if it has no
+     * rooms (so the portals of an empty chunk still meet).
+     */
+    private static int[] nearestCentre(List<Room> rooms, int x, int y) {
+        int[] best = new int[] {CHUNK_SIZE / 2, CHUNK_SIZE / 2};
+        int bestDistance = Integer.MAX_VALUE;
+        for (Room room : rooms) {
+            int[] centre = room.getCenter();
+            int distance = Math.abs(centre[0] - x) + Math.abs(centre[1] - y);
+            if (distance < bestDistance) {
+                best = centre;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns where along the given side of chunk (cx, cy) its portal is, which is also where the
+     * portal of the chunk on the other side is. Portals are never in a corner.
+     */
+    private int portal(int cx, int cy, int side) {
+        return 1 + (int) Math.floorMod(mix(_seed, cx, cy, side), (long) (CHUNK_SIZE - 2));
+    }
+
+    /**
+     * Mixes the world's seed with a chunk's position and a salt into a new, well scrambled seed
+     * (the SplitMix64 finaliser).
+     */
+    private static long mix(long seed, int cx, int cy, int salt) {
+        long z = seed + 0x9E3779B97F4A7C15L * (key(cx, cy) + 1) + 0xBF58476D1CE4E5B9L * salt;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Makes the map of chunks in memory, which drops the least recently used chunk once there
+     * are more than _maxChunks.
+     */
+    private LinkedHashMap<Long, TETile[]> newCache() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TETile[]> eldest) {
+                return size() > _maxChunks;
+            }
+        };
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _chunks = newCache();
+    }
+
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width() && y < height();
+    }
+
+    private static int offset(int x, int y) {
+        return (x % CHUNK_SIZE) * CHUNK_SIZE + y % CHUNK_SIZE;
+    }
+
+    private static long key(int cx, int cy) {
+        return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+    }
+}
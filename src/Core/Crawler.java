@@ -1,6 +1,6 @@
 package byow.Core;
 
-import byow.TileEngine.TETile;
+import byow.TileEngine.WorldModel;
 import java.util.*;
 import static byow.Core.Direction.*;
 
@@ -8,13 +8,32 @@ import static byow.Core.Direction.*;
  * Class representing a crawler.
  * Crawlers wander through the map randomly, until the player steps into their range, which
  * aggravates them. Distance is measured using the taxicab metric.
- * Once the player steps into their range, they calculate the shortest path to the player using
- * Dijkstra's algorithm.
+ * Once the player steps into their range, they chase the player according to their ChaseMode:
+ * either by following the Game's FlowField, which is shared by every crawler, with an A* search
+ * bounded by their range, by repairing the path they kept from the last tick, or by searching
+ * one of the Game's compressed graphs of the world.
  */
 public class Crawler extends Enemy {
-    Random _random;
+    /* the moves a wandering crawler picks from, in the order they're checked */
+    private static final Direction[] WANDER_MOVES = {NORTH, SOUTH, EAST, WEST, NOPE};
 
-    public Crawler(int x, int y, int range, int speed, Random random, TETile[][] world) {
+    Random _random;
+    /* reused every time the crawler wanders, to hold the moves it can make */
+    private final Direction[] _validMoves = new Direction[WANDER_MOVES.length];
+    /* shared walkability grid, used for A* chases. The Game gives the crawler its pathfinding
+    structures again when it's loaded (see setNavigation), so they aren't saved with it. */
+    transient GridPathfinder _pathfinder;
+    /* how the crawler plans its path once it's aggro'd */
+    ChaseMode _chaseMode;
+    /* path kept between ticks in INCREMENTAL mode; made the first time it's needed */
+    transient IncrementalPlanner _planner;
+    /* shared graph of room entrances, used in HIERARCHICAL mode; null if the rooms aren't known */
+    transient RoomNavigator _roomNavigator;
+    /* shared corridor-compressed graph of the world, used in NAV_GRAPH mode */
+    transient NavGraph _navGraph;
+
+    public Crawler(int x, int y, int range, int speed, Random random, GridPathfinder pathfinder,
+                   FlowField flowField, RoomNavigator roomNavigator, NavGraph navGraph) {
         _alive = true;
         _aggro = false;
         _range = range;
@@ -22,8 +41,12 @@ public class Crawler extends Enemy {
         _x = x;
         _y = y;
         _random = random;
-        _path = world;
-        _plan = new LinkedList<>();
+        _pathfinder = pathfinder;
+        _flowField = flowField;
+        _roomNavigator = roomNavigator;
+        _navGraph = navGraph;
+        _chaseMode = ChaseMode.FLOW_FIELD;
+        _plan = new ArrayDeque<>();
     }
 
     /**
@@ -32,34 +55,33 @@ public class Crawler extends Enemy {
      * @param world the current representation of the Labyrinthian world.
      * @return true iff the move is valid given the representation of the world.
      */
-    private boolean isValidMove(Direction move, TETile[][] world){
+    private boolean isValidMove(Direction move, WorldModel world){
         switch (move) {
             case NORTH:
-                return (world[_x][(_y+1)].character()!='#' && world[_x][(_y+1)].character()!='░'
-                        && world[_x][_y+1].character() != '*');
+                return (world.character(_x, _y+1)!='#' && world.character(_x, _y+1)!='░'
+                        && world.character(_x, _y+1) != '*');
             case SOUTH:
-                return (world[_x][(_y-1)].character()!='#' && world[_x][(_y-1)].character()!='░' &&
-                        world[_x][_y-1].character() != '*');
+                return (world.character(_x, _y-1)!='#' && world.character(_x, _y-1)!='░' &&
+                        world.character(_x, _y-1) != '*');
             case EAST:
-                return (world[_x+1][_y].character()!='#' && world[_x+1][_y].character()!='░'  &&
-                        world[_x+1][_y].character() != '*');
+                return (world.character(_x+1, _y)!='#' && world.character(_x+1, _y)!='░'  &&
+                        world.character(_x+1, _y) != '*');
             case WEST:
-                return (world[_x-1][_y].character()!='#' && world[_x-1][_y].character()!='░' &&
-                        world[_x-1][_y].character() != '*');
+                return (world.character(_x-1, _y)!='#' && world.character(_x-1, _y)!='░' &&
+                        world.character(_x-1, _y) != '*');
             default:
                 return false;
         }
     }
 
-    /** Updates the enemy's path depending on whether they are aggro'd or not.
-     * If aggro, crawler uses dijkstra's to find the shortest path to the player given the
-     * TETile[][]
-     * array provided. Otherwise it decides to move pseudo-randomly out of all the possible moves
-     * it can make.
+    /** Updates the enemy's plan depending on whether they are aggro'd or not.
+     * If aggro, crawler plans a path to the player using its ChaseMode. Otherwise, or if the
+     * player can't be reached within its search radius, it decides to move pseudo-randomly out of
+     * all the possible moves it can make.
      * @param player
-     * @param world  this should be a CLEAN world with no paths filled in.
+     * @param world  the current world. Only its tiles are looked at, not the paths in it.
      */
-    private void decidePath(Player player, TETile[][] world) {
+    private void decidePath(Player player, WorldModel world) {
         _plan.clear();
 
         if (inRange(player)) {
@@ -68,15 +90,48 @@ public class Crawler extends Enemy {
             _aggro = false;
         }
         // starts chasing the player
+        boolean chasing = false;
         if (_aggro) {
-            _path = dijkstra(world, player.getX(), player.getY());
+            switch (_chaseMode) {
+                case A_STAR:
+                    chasing = _pathfinder.aStar(_x, _y, player.getX(), player.getY(),
+                            searchRadius(), _plan) >= 0;
+                    break;
+                case INCREMENTAL:
+                    if (_planner == null) {
+                        _planner = new IncrementalPlanner(_pathfinder, searchRadius());
+                    }
+                    chasing = _planner.update(_x, _y, player.getX(), player.getY(), world,
+                            _plan) >= 0;
+                    break;
+                case HIERARCHICAL:
+                    if (_roomNavigator != null) {
+                        chasing = _roomNavigator.shortestPath(_x, _y, player.getX(),
+                                player.getY(), searchRadius(), _plan) >= 0;
+                    } else {
+                        chasing = _pathfinder.aStar(_x, _y, player.getX(), player.getY(),
+                                searchRadius(), _plan) >= 0;
+                    }
+                    break;
+                case NAV_GRAPH:
+                    chasing = _navGraph.shortestPath(_x, _y, player.getX(), player.getY(),
+                            _plan) >= 0;
+                    break;
+                case FLOW_FIELD:
+                default:
+                    chasing = _flowField.followPath(_x, _y, _plan) >= 0;
+                    break;
+            }
         }
         // Move randomly if not aggro'd
-        if (!_aggro) {
-            Direction[] validMoves = new Direction[5];
+        if (!chasing) {
+            if (_planner != null) {
+                _planner.reset();
+            }
+            Direction[] validMoves = _validMoves;
             //NORTH SOUTH NOPE NULL NULL
             int i=0;
-            for (Direction d: new Direction[]{NORTH, SOUTH, EAST, WEST, NOPE} ) {
+            for (Direction d: WANDER_MOVES) {
                 if (d.equals(NOPE)) {
                     validMoves[i] = d;
                     i++;
@@ -87,244 +142,77 @@ public class Crawler extends Enemy {
             }
             RandomUtils.shuffle(_random, validMoves, 0, i);
             Direction direction = validMoves[0];
-
-            switch (direction){
-                case NORTH:
-                    if (isValidMove(NORTH, world)) {
-                        _path[_x][_y+1] = _path[_x][_y+1].copyOfPath();
-                        _plan.add(NORTH);
-                    }
-                    break;
-                case SOUTH:
-                    if (isValidMove(SOUTH, world)) {
-                        _path[_x][_y-1] = _path[_x][_y-1].copyOfPath();
-                        _plan.add(SOUTH);
-                    }
-                    break;
-                case WEST:
-                    if (isValidMove(WEST, world)) {
-                        _path[_x-1][_y] = _path[_x-1][_y].copyOfPath();
-                        _plan.add(WEST);
-                    }
-                    break;
-                case EAST:
-                    if (isValidMove(EAST, world)) {
-                        _path[_x+1][_y] = _path[_x+1][_y].copyOfPath();
-                        _plan.add(EAST);
-                    }
-                    break;
+            if (!direction.equals(NOPE)) {
+                _plan.add(direction);
             }
         }
     }
 
     /**
-     * Looks at paths around it and decides if it should follow it. Also decides on its next path
-     * after taking the action. Returns the direction it takes.
+     * Takes the first step of the current plan, unless another crawler is in the way. Also
+     * decides on its next plan after taking the action. Returns the direction it takes.
      * @param player the player character
      * @return Direction that the enemy has decided to move in this turn.
      */
-    public Direction updatePosition(Player player, TETile[][] world) {
-        if (_path[_x+1][_y].isPath() && world[_x+1][_y].character() != '░') {
-            _path[_x+1][_y] = _path[_x+1][_y].copyOfNotPath();
-            _x++;
-            decidePath(player, world);
-            return EAST;
-        }
-        if (_path[_x-1][_y].isPath() && world[_x-1][_y].character() != '░') {
-            _path[_x-1][_y] = _path[_x-1][_y].copyOfNotPath();
-            _x--;
-            decidePath(player, world);
-            return WEST;
-        }
-        if (_path[_x][_y+1].isPath() && world[_x][_y+1].character() != '░') {
-            _path[_x][_y+1] = _path[_x][_y+1].copyOfNotPath();
-            _y++;
-            decidePath(player, world);
-            return NORTH;
+    public Direction updatePosition(Player player, WorldModel world) {
+        Direction next = _plan.isEmpty() ? NOPE : _plan.peekFirst();
+        int newX = _x;
+        int newY = _y;
+        switch (next) {
+            case NORTH:
+                newY++;
+                break;
+            case SOUTH:
+                newY--;
+                break;
+            case EAST:
+                newX++;
+                break;
+            case WEST:
+                newX--;
+                break;
+            default:
+                break;
         }
-        if (_path[_x][_y-1].isPath() && world[_x][_y-1].character() != '░') {
-            _path[_x][_y-1] = _path[_x][_y-1].copyOfNotPath();
-            _y--;
+        if (next.equals(NOPE) || world.character(newX, newY) == '░') {
             decidePath(player, world);
-            return SOUTH;
+            return NOPE;
         }
+        _x = newX;
+        _y = newY;
         decidePath(player, world);
-        return NOPE;
+        return next;
     }
 
     /**
-     * Helper for updatePosition. Crawler uses Dijkstra's on its own x and y coordinates, and the
-     * x and y coordinates of the player (dest_x, dest_y). Its own x and y should not be modified.
-     * BFS uses matrix coordinates internally.
-     * @param dest_x
-     * @param dest_y
-     * @return TETile array with the path highlighted (floor changed to PATH Tiles).
+     * Moves the crawler by (dx, dy) and gives it the game's new pathfinding structures, for when
+     * the world is moved under it (see Game.moveWindow). Its plan is dropped.
      */
-    private TETile[][] dijkstra(TETile[][] world,  int dest_x, int dest_y) {
-
-        /**
-         * Class that represents a coordinate.
-         */
-        class PriorityCoordinate implements Comparable<PriorityCoordinate> {
-            int _x;
-            int _y;
-            int _priority;
-
-            public PriorityCoordinate(int x, int y, int priority) {
-                _x = x;
-                _y = y;
-                _priority = priority;
-            }
-
-            @Override
-            public int compareTo(PriorityCoordinate other) {
-                return this._priority - other._priority;
-            }
-
-            @Override
-            public boolean equals(Object o) {
-                if (o==null) {
-                    return false;
-                }
-                if (this == o) {
-                    return true;
-                }
-                if (o instanceof PriorityCoordinate) {
-                    PriorityCoordinate other = (PriorityCoordinate) o;
-                    return (_x == other._x) && (this._y == other._y);
-                }
-                return false;
-            }
-
-            @Override
-            public String toString() {
-                return "["+_x+","+_y+"]";
-            }
-
-            public static void printArray(PriorityCoordinate[][] input) {
-                for (int i=0; i<input.length; i++) {
-                    for (int j=0; j<input[0].length; j++) {
-                        if (input[i][j]==null) {
-                            System.out.print(i+","+j+"[-,-]");
-                        } else {
-                            System.out.print(i+","+j+input[i][j]);
-                        }
-                    }
-                    System.out.println();
-                }
-            }
-        }
-
-        int INF = Integer.MAX_VALUE;
-        PriorityCoordinate[][] prevTile = new PriorityCoordinate[world.length][world[0].length];
-        int[][] distances = new int[world.length][world[0].length];
-        boolean[][] visited = new boolean[world.length][world[0].length];
-
-        //these help get the neighbors: let E be the enemy/starting vertex, O represents the neighbors
-        // # # # # #
-        // # O # # #
-        // O E O # #
-        // # O # # #
-        // # # # # #
-        int[] rowScale = new int[]{-1, 0, 1, 0};
-        int[] colScale = new int[]{0, 1, 0, -1};
-
-        PriorityQueue<PriorityCoordinate> fringe = new PriorityQueue<>();
-        // initialize values for fringe and distances.
-        for (int i=0; i<world.length; i++) {
-            for (int j=0; j<world[0].length; j++) {
-                if (!(world[i][j].character()=='#')) {
-                    distances[i][j] = INF;
-                    fringe.add(new PriorityCoordinate(i, j, INF));
-                }
-            }
-        }
-
-        // update priority value and prevtile of the start
-        prevTile[_x][_y] = new PriorityCoordinate(_x, _y, 0);
-        distances[_x][_y] = 0;
-        fringe.add(new PriorityCoordinate(_x, _y, 0));
-
-        //make a copy of given world
-        TETile[][] bfsPath = TETile.copyOf(world);
-
-        while (!fringe.isEmpty()) {
-            PriorityCoordinate current = fringe.poll();
-            int current_x = current._x;
-            int current_y = current._y;
-
-            if ((current_x == dest_x) && (current_y == dest_y)) {
-                break;
-            }
-
-            if (visited[current_x][current_y]) {
-                continue;
-            }
-
-            //after removing, we look at the neighbors
-            for (int i = 0; i < 4; i++) {
-                //helps get the top, bottom, left, right neighbor
-                int adjX = current_x + rowScale[i];
-                int adjY = current_y + colScale[i];
-                //check if it's not been visited yet
-                if (isValid(adjX, adjY, world)) {
-                    if (distances[current_x][current_y] + 1 < distances[adjX][adjY]) {
-                        distances[adjX][adjY] = distances[current_x][current_y] + 1;
-                        prevTile[adjX][adjY] = new PriorityCoordinate(current_x, current_y, 0);
-                        fringe.add(new PriorityCoordinate(adjX, adjY, distances[adjX][adjY]));
-                    }
-                }
-            }
-            visited[current_x][current_y] = true;
-        }
-
-        int pointerX = dest_x;
-        int pointerY = dest_y;
-        int newPointerX;
-        int newPointerY;
-        Stack<Direction> stack = new Stack<>(); // used to produce crawler's plan.
-        while ((pointerX != _x) || (pointerY != _y)) {
-            bfsPath[pointerX][pointerY] =
-                    world[pointerX][pointerY].copyOfPath();
-            newPointerX = prevTile[pointerX][pointerY]._x;
-            newPointerY = prevTile[pointerX][pointerY]._y;
-            // do something to get the plan
+    void moveWindow(int dx, int dy, GridPathfinder pathfinder, FlowField flowField,
+                    RoomNavigator roomNavigator, NavGraph navGraph) {
+        _x += dx;
+        _y += dy;
+        setNavigation(pathfinder, flowField, roomNavigator, navGraph);
+        _plan.clear();
+    }
 
-            if (newPointerX == pointerX+1) {
-                stack.push(WEST);
-            } else if (newPointerX == pointerX-1) {
-                stack.push(EAST);
-            } else if (newPointerY == pointerY - 1) {
-                stack.push(NORTH);
-            } else if (newPointerY == pointerY + 1) {
-                stack.push(SOUTH);
-            }
-            pointerX = newPointerX;
-            pointerY = newPointerY;
-        }
-        while (!stack.empty()) {
-            // pop Directions from the stack and put into plan.
-            _plan.add(stack.pop());
-        }
-        return bfsPath;
+    /**
+     * Gives the crawler the game's pathfinding structures, e.g. once the game has been loaded.
+     */
+    void setNavigation(GridPathfinder pathfinder, FlowField flowField,
+                       RoomNavigator roomNavigator, NavGraph navGraph) {
+        _pathfinder = pathfinder;
+        _flowField = flowField;
+        _roomNavigator = roomNavigator;
+        _navGraph = navGraph;
+        _planner = null;
     }
 
     /**
-     * Helper for Dijkstra's. It checks whether we should consider the tile for Dijkstra's.
-     * @param row     indexes the row
-     * @param col     indexes the column
-     * @return        true iff the tile hasn't already been visited.
+     * Changes how the crawler plans its path once it's aggro'd.
      */
-    private boolean isValid(int row, int col, TETile[][] world) {
-        //if it's out of bounds, return false
-        if (row < 0 || row >= world.length || col < 0 || col >= world[0].length) {
-            return false;
-        }
-        // if it's a wall, return false
-        if (world[row][col].character() == '#') {
-            return false;
-        }
-        return true;
+    public void setChaseMode(ChaseMode chaseMode) {
+        _chaseMode = chaseMode;
     }
 
     public void toggleAggro() {
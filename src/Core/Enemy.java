@@ -1,9 +1,9 @@
 package byow.Core;
 
-import byow.TileEngine.TETile;
+import byow.TileEngine.WorldModel;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /**
  * An abstract representation of an Enemy in the Labyrinthian game.
@@ -17,6 +17,10 @@ public abstract class Enemy implements Serializable {
     /* The range of vision for the enemy. */
     int _range;
 
+    /* Walls can make the walk to the player longer than the taxicab distance used for aggro, so
+    bounded searches allow paths up to this many times the range. */
+    static final int SEARCH_RADIUS_FACTOR = 2;
+
     /* How many steps the enemy takes per tick */
     int _speed;
 
@@ -24,17 +28,17 @@ public abstract class Enemy implements Serializable {
     int _x;
     int _y;
 
-    /* Each enemy maintains an internal representation of the world, with its own path filled
-    in. */
-    TETile[][] _path;
+    /* A queue of directions describing the path it's taking; passed to the Game for path
+    rendering. The first direction is the step the enemy takes next turn. _plan is emptied every
+    single time the enemy decides to move (Changes every turn), but the deque itself is reused. */
+    ArrayDeque<Direction> _plan;
 
-    /* A Linked List of directions describing the path it's taking; passed to the Game for path
-    rendering. _plan is emptied every single time the enemy decides to move (Changes every
-    turn) */
-    LinkedList<Direction> _plan;
+    /* distance-to-player field shared by every enemy in the game; aggro'd enemies read their
+    next step from it. It's given to the enemy again when the game is loaded. */
+    transient FlowField _flowField;
 
 
-    public LinkedList<Direction> getPlan() {
+    public ArrayDeque<Direction> getPlan() {
         return _plan;
     }
 
@@ -60,6 +64,13 @@ public abstract class Enemy implements Serializable {
         return Math.abs(_x - player_x) + Math.abs(_y - player_y) <= _range;
     }
 
+    /**
+     * Returns the longest path the enemy will look for when chasing the player.
+     */
+    public int searchRadius() {
+        return _range * SEARCH_RADIUS_FACTOR;
+    }
+
     public int getX() {
         return _x;
     }
@@ -70,12 +81,11 @@ public abstract class Enemy implements Serializable {
 
     /**
      * Moves the enemy. Enemy may move relative to the player's position depending on its state.
-     * Returns a cardinal direction to pass to the Game so that the game can modify its TETile[][]
-     * world.
+     * Returns a cardinal direction to pass to the Game so that the game can modify its world.
      * @param player The player character.
      * @return The direction the enemy has decided to move in this turn.
      */
-    public abstract Direction updatePosition(Player player, TETile[][] world);
+    public abstract Direction updatePosition(Player player, WorldModel world);
 
     /**
      * Returns true iff the enemy is next to the player.
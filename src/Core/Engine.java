@@ -1,13 +1,17 @@
 package byow.Core;
 
+import byow.TileEngine.Camera;
 import byow.TileEngine.TERenderer;
 import byow.TileEngine.TETile;
+import byow.TileEngine.FrameSnapshot;
+import byow.TileEngine.RenderThread;
 import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.*;
 import java.io.File;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Future;
 
 /**
  * The engine handles key inputs and visualizing the world.
@@ -18,7 +22,17 @@ public class Engine {
     public static final int WIDTH = 80;
     public static final int HEIGHT = 48;
 
+    /* Size of new worlds made with interactWithKeyboard. Worlds bigger than the window are
+    chunked (see Game.generateChunked), and shown through a Camera that follows the player. */
+    private final int worldWidth;
+    private final int worldHeight;
+
     public static final File SAVE_FILE = new File(System.getProperty("user.dir"), "save.txt");
+    /* Journal of the game being played. It only exists while a game is running, or if the game
+    crashed, in which case loading picks up from it instead of SAVE_FILE. Games in a save slot
+    have their own journal (see SaveStore.journalFile). */
+    public static final File JOURNAL_FILE = new File(System.getProperty("user.dir"),
+            "save.journal");
 
     private static final String[] randomDialogue = {"It's so dark!", "What's that noise?",
             "I'm tired.", "Wasn't I just here?", "I need a lamp...", "hm", "..."};
@@ -26,6 +40,64 @@ public class Engine {
     /* Indicates whether the engine will render paths taken by enemies. */
     private boolean renderPaths = false;
 
+    /* How crawlers in new games chase the player. */
+    private ChaseMode chaseMode = ChaseMode.FLOW_FIELD;
+
+    /* What games are saved as when quitting. */
+    private SaveCodec.Format saveFormat = SaveCodec.Format.SNAPSHOT;
+
+    /* If not null, games are saved in this store's saveSlot instead of SAVE_FILE. */
+    private SaveStore saveStore;
+    private int saveSlot;
+    /* JOURNAL_FILE, or the save slot's journal */
+    private File journalFile = JOURNAL_FILE;
+
+    /* Picks the HUD's dialogue. This isn't the game's Random, so that drawing the HUD doesn't
+    change the game, which can then be replayed from its keys alone. */
+    private final Random dialogueRandom = new Random();
+
+    /**
+     * Makes an engine whose worlds are the size of the window.
+     */
+    public Engine() {
+        this(WIDTH, HEIGHT);
+    }
+
+    /**
+     * Makes an engine whose new worlds are worldWidth by worldHeight tiles. Worlds bigger than
+     * the window are only generated a chunk at a time as the player explores them, so they can
+     * be as big as an int allows. This only changes interactWithKeyboard;
+     * interactWithInputString always makes WIDTH by HEIGHT worlds.
+     */
+    public Engine(int worldWidth, int worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+
+    /**
+     * Changes how crawlers in new games chase the player; FLOW_FIELD by default. Loaded games
+     * keep the chase mode they were saved with.
+     */
+    public void setChaseMode(ChaseMode mode) {
+        chaseMode = mode;
+    }
+
+    /**
+     * Changes what games are saved as when quitting; snapshots by default.
+     */
+    public void setSaveFormat(SaveCodec.Format format) {
+        saveFormat = format;
+    }
+
+    /**
+     * Saves and loads games in a slot of store instead of SAVE_FILE, e.g. one slot per player.
+     */
+    public void setSaveSlot(SaveStore store, int slot) {
+        saveStore = store;
+        saveSlot = slot;
+        journalFile = store.journalFile(slot);
+    }
 
     /**
      * Method used for exploring a fresh world. This method should handle all inputs,
@@ -89,14 +161,16 @@ public class Engine {
             // print out prompt screen for seed
             long seed = inputSeedScreen();
             Difficulty difficulty = difficultySelectScreen();
-            WorldGenerator w = new WorldGenerator(WIDTH, HEIGHT, seed, difficulty);
-            TETile[][] world = w.generateWorld();
-            Random gameRandom = new Random(seed);
-            game = new Game(world, gameRandom, difficulty);
-            world = game.getWorld();
+            if (worldWidth > WIDTH || worldHeight > HEIGHT) {
+                game = Game.generateChunked(seed, difficulty, worldWidth, worldHeight);
+            } else {
+                game = Game.generate(seed, difficulty, worldWidth, worldHeight);
+            }
+            if (chaseMode != ChaseMode.FLOW_FIELD) {
+                game.setChaseMode(chaseMode);
+            }
             ter.setDefaultParams();
             ter.initialize(WIDTH, HEIGHT+2, 0, 2);
-            ter.renderFrame(world, renderPaths);
             // make a new Game object using the TETile array
         } else {
             game = loadGame();
@@ -105,86 +179,119 @@ public class Engine {
             }
             ter.setDefaultParams();
             ter.initialize(WIDTH, HEIGHT+2, 0, 2);
-            TETile[][] world = game.getWorld();
-            ter.renderFrame(world, renderPaths);
         }
+        // only the part of the world around the player is shown, however big the world is
+        Camera camera = new Camera(WIDTH, HEIGHT, game.getWorldModel().width(),
+                game.getWorldModel().height());
+        camera.centreOn(game._player.getX(), game._player.getY());
+        // where a chunked game's window is, to keep the camera still when the window moves
+        int originX = game._originX;
+        int originY = game._originY;
+        // every move is journalled, so a crash doesn't lose the game
+        Journal journal = null;
+        if (SaveCodec.canEncode(game)) {
+            journal = Journal.open(journalFile, game);
+        }
+        // saves are written in the background, including an autosave every so often
+        AsyncSaver saver = newSaver();
+        // frames are drawn on their own thread; this one only runs the game and reads input
+        RenderThread renderThread = new RenderThread(ter, WIDTH, HEIGHT);
+        renderThread.start();
         Outcome outcome = null;
         while (game.isRunning()) {
-             int mouseX = (int) StdDraw.mouseX();
-             int mouseY = (int) StdDraw.mouseY();
-             if ((mouseX <= WIDTH && mouseY <= HEIGHT) && mouseY >= 2) {
-                 TETile[][] world = game.getWorld();
-                 TETile currentTile = world[mouseX][mouseY-2]; // add in mouseY-2 if necessary
-                 String tileDescription;
-                 if (currentTile.isDark()) {
-                     tileDescription = "It's so dark...";
-                 } else {
-                     tileDescription = currentTile.description();
-                 }
-                 //render HUD
-                 Font f = new Font("Narnia", Font.BOLD, 12);
-                 StdDraw.setFont(f);
-                 StdDraw.setPenColor(Color.WHITE);
-                 StdDraw.text(5, 1, tileDescription);
-                 StdDraw.show();
-             }
-
-            StdDraw.setPenColor(Color.WHITE);
-            Font f = new Font("Narnia", Font.BOLD, 12);
-            StdDraw.setFont(f);
-            int randomSentences = RandomUtils.uniform(game._random, randomDialogue.length);
-            StdDraw.text(WIDTH/2, 1, randomDialogue[randomSentences]);
-            String save = "CURRENT DREAD: " + game._player.getDread();
-            StdDraw.text(WIDTH/1.15, 1, save);
-            StdDraw.show();
+            publishFrame(renderThread, game, camera);
 
             char input = gatherUserInput(new char[] {':', 'w', 'a', 's', 'd'});
             if (input==':') {
                 // "preparing for special input"
                 input = gatherUserInput();
                 if (input == 'q' || input == 'Q') {
-                    saveGame(game);
+                    renderThread.stop();
+                    Future<Void> save = saver.save(game);
+                    saver.close();
+                    // the journal can only go once the save is on disk
+                    if (AsyncSaver.succeeded(save)) {
+                        discardJournal(journal);
+                    } else {
+                        if (journal != null) {
+                            journal.close();
+                        }
+                        saveFailedScreen(journal != null);
+                    }
                     return;
                 }
                 if (input == 'l' || input == 'L') {
                     game.toggleDark();
-                    TETile[][] world = game.getWorld();
-                    ter.setDefaultParams();
-                    ter.renderFrame(world, renderPaths);
+                    saver.autosave(game);
                     continue;
                 }
                 if (input == 'p' || input == 'P') {
                     /* Toggle path rendering */
                     renderPaths = !renderPaths;
-                    TETile[][] world = game.getWorld();
-                    ter.setDefaultParams();
-                    ter.renderFrame(world, renderPaths);
                     continue;
                 }
                 if (input == 'h' || input == 'H') {
                     /* show the help screen */
+                    renderThread.stop();
                     helpScreen();
-                    TETile[][] world = game.getWorld();
                     ter.initialize(WIDTH, HEIGHT+2, 0, 2);
                     ter.setDefaultParams();
-                    ter.renderFrame(world, renderPaths);
+                    renderThread.start();
                     continue;
                 }
                 continue; // restart animation loop
             }
             // we only reach here if we inputted wasd
             outcome = game.tickTime(input);
-            TETile[][] world = game.getWorld();
-            ter.setDefaultParams();
-            ter.renderFrame(world, renderPaths);
-
+            camera.shift(originX - game._originX, originY - game._originY);
+            originX = game._originX;
+            originY = game._originY;
+            saver.autosave(game);
         }
+        renderThread.stop();
+        saver.close();
+        // there's nothing to recover once the game is over
+        discardJournal(journal);
         // when game no longer runs (reach this point)
         assert outcome != null;
         gameOverScreen(outcome);
         // print game over screen.
     }
 
+    /**
+     * Copies the part of the world the camera can see and the HUD into the render thread's next
+     * frame and publishes it. The camera is moved to follow the player first.
+     */
+    private void publishFrame(RenderThread renderThread, Game game, Camera camera) {
+        camera.follow(game._player.getX(), game._player.getY());
+        // only the tiles that changed since the last tick are copied, unless the camera moved
+        FrameSnapshot frame = renderThread.fillFrame(game.getWorldModel(), game.getDelta(),
+                camera, renderPaths);
+
+        int mouseX = (int) StdDraw.mouseX();
+        int mouseY = (int) StdDraw.mouseY();
+        // the mouse is over the window, so it's turned into world coordinates with the camera
+        int worldX = camera.left() + mouseX;
+        int worldY = camera.bottom() + mouseY - 2;
+        if ((mouseX < WIDTH && mouseY < HEIGHT + 2) && mouseY >= 2 && mouseX >= 0
+                && worldX < game.getWorldModel().width()
+                && worldY < game.getWorldModel().height()) {
+            TETile currentTile = game.getWorldModel().view(worldX, worldY);
+            String tileDescription;
+            if (currentTile.isDark()) {
+                tileDescription = "It's so dark...";
+            } else {
+                tileDescription = currentTile.description();
+            }
+            frame.addHudText(5, tileDescription);
+        }
+        int randomSentences = RandomUtils.uniform(dialogueRandom, randomDialogue.length);
+        frame.addHudText(WIDTH/2, randomDialogue[randomSentences]);
+        String save = "CURRENT DREAD: " + game._player.getDread();
+        frame.addHudText(WIDTH/1.15, save);
+        renderThread.publish();
+    }
+
     /**
      * Loads the screen and prompts user for an input seed. If no input is given, returns the
      * default seed (0L).
@@ -295,24 +402,35 @@ public class Engine {
     }
 
     /**
-     * Displays controls and instructions about the game, but doesn't prompt user for input.
+     * Tells the player the game couldn't be saved, and waits for them to press q.
+     * @param journalled true iff the game's journal was kept, so loading will still get it back.
      */
-    private void printHelpScreen(){
+    private void saveFailedScreen(boolean journalled) {
+        ter.initialize(WIDTH, HEIGHT);
         StdDraw.clear(Color.BLACK);
         StdDraw.setPenColor(Color.WHITE);
         Font fontBig = new Font("Narnia", Font.BOLD, 30);
+        Font fontSmall = new Font("Narnia", Font.BOLD, 15);
         StdDraw.setFont(fontBig);
-        StdDraw.text((double) WIDTH / 2, (double) HEIGHT / 3 * 2, "This is the instruction screen");
-        StdDraw.text((double) WIDTH / 2, (double) HEIGHT / 3, "e: Easy, m: Medium, h: Hard");
+        StdDraw.text((double) WIDTH / 2, (double) HEIGHT / 3 * 2, "The game couldn't be saved.");
+        StdDraw.setFont(fontSmall);
+        if (journalled) {
+            StdDraw.text((double) WIDTH / 2, (double) HEIGHT / 2,
+                    "It will be recovered the next time you load.");
+        }
+        StdDraw.text((double) WIDTH / 2, (double) HEIGHT / 3, "Press q to quit.");
         StdDraw.show();
+        gatherUserInput(new char[] {'q', 'Q'});
     }
 
     /**
-     *  Saves the game to the ./saves directory, making it if it doesn't exist.
-     *
+     * Returns a saver that saves games to SAVE_FILE, or the save slot if there is one.
      */
-    private void saveGame(Game game) {
-        Utils.writeObject(SAVE_FILE, game);
+    private AsyncSaver newSaver() {
+        if (saveStore != null) {
+            return new AsyncSaver(saveStore, saveSlot, saveFormat);
+        }
+        return new AsyncSaver(SAVE_FILE, saveFormat);
     }
 
     /**
@@ -320,11 +438,35 @@ public class Engine {
      * @return null if no save files exist; otherwise, returns the current save file.
      */
     private Game loadGame() {
+        if (journalFile.exists()) {
+            // the last game didn't get to save, so it's newer than the save
+            try {
+                return Journal.recover(journalFile);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Couldn't recover the journal: " + e.getMessage());
+            }
+        }
+        if (saveStore != null) {
+            return saveStore.load(saveSlot);
+        }
         if (!SAVE_FILE.exists()) {
             return null;
         }
-        return Utils.readObject(SAVE_FILE, Game.class);
+        return SaveCodec.load(SAVE_FILE);
+
+    }
 
+    /**
+     * Stops journalling and deletes the journal, once the game it's for has been saved or is
+     * over.
+     * @param journal may be null.
+     */
+    private void discardJournal(Journal journal) {
+        if (journal == null) {
+            return;
+        }
+        journal.close();
+        journalFile.delete();
     }
 
     /**
@@ -336,20 +478,11 @@ public class Engine {
         for (char c : validChars) {
             valid.add(c);
         }
-        // waiting for any keypress...
-        while (!StdDraw.hasNextKeyTyped()) {
-            StdDraw.pause(1); // keep waiting until any key is pressed
-        }
-
-        // only one keypress for this method
+        // only one keypress for this method; sleeps until a key is typed
         while (true) {
-            char typedCharacter = StdDraw.nextKeyTyped();
+            char typedCharacter = KeyEventInputSource.instance().getNextKey();
             if (valid.contains(typedCharacter)) {
                 return typedCharacter;
-            } else {
-                while(!StdDraw.hasNextKeyTyped()) {
-                    StdDraw.pause(1);
-                }
             }
         }
     }
@@ -358,13 +491,8 @@ public class Engine {
      * Returns a char consisting of a single user input.
      */
     private char gatherUserInput() {
-
-        //waiting for any keypress...
-        while (!StdDraw.hasNextKeyTyped()) {
-            StdDraw.pause(1); //we'll keep waiting until any key is pressed
-        }
-
-        return StdDraw.nextKeyTyped();
+        // sleeps until a key is typed
+        return KeyEventInputSource.instance().getNextKey();
     }
 
 
@@ -390,114 +518,18 @@ public class Engine {
      * @return the 2D TETile[][] representing the state of the world
      */
     public TETile[][] interactWithInputString(String input) {
+        return interactWithInputSource(new StringInputDevice(input));
+    }
 
-        InputSource inputSource = new StringInputDevice(input);
-
-        int totalCharacters = 0;
-
-        String seed = "";
-        boolean mainMenu = true;
-        boolean readSeed = false;
-        boolean selectDifficulty = false;
-        boolean inGame = false;
-        String commands = "";
-        boolean prepSpecial = false;
-        boolean helpScreen = false;
-
-        Game game = loadGame(); // trick to get compiler to work
-
-        while (inputSource.possibleNextInput()) {
-            totalCharacters += 1;
-            char c = inputSource.getNextKey();
-            if ((c == 'l' || c == 'L') && mainMenu) {
-                // load the game
-                game = loadGame();
-                if (game==null) {
-                    return null;
-                }
-                mainMenu = false;
-                readSeed = false;
-                inGame = true;
-                continue;
-            }
-            if ((c == 'n' || c == 'N') && mainMenu) {
-                mainMenu = false;
-                readSeed = true;
-                continue;
-            }
-            if (Character.isDigit(c) && readSeed) {
-                seed += c;
-                continue;
-            }
-            if ((c == 's' || c == 'S') && readSeed) {
-                readSeed = false;
-                selectDifficulty = true;
-            }
-            if ((c == 'e' || c == 'E' || c == 'm' || c == 'M' || c == 'h' || c == 'H') &&
-                    selectDifficulty) {
-                Difficulty difficulty;
-                switch (c) {
-                    case 'e','E':
-                         difficulty = Difficulty.EASY;
-                         break;
-                    case 'm', 'M':
-                        difficulty = Difficulty.MEDIUM;
-                        break;
-                    case 'h','H':
-                        difficulty = Difficulty.HARD;
-                        break;
-                    default:
-                        difficulty = Difficulty.EASY;
-                }
-                selectDifficulty = false;
-                inGame = true;
-                WorldGenerator w = new WorldGenerator(WIDTH, HEIGHT, Long.parseLong(seed), difficulty);
-                TETile[][] world = w.generateWorld();
-                Random gameRandom = new Random(Long.parseLong(seed));
-                game = new Game(world, gameRandom, difficulty);
-                continue;
-            }
-            if ((c == 's' || c == 'S' || c == 'w' || c == 'W'
-                    || c == 'a' || c == 'A' || c == 'd' || c == 'D') && inGame) {
-                commands += c;
-                game.tickTime(c);
-                continue;
-            }
-            if (c == ':' && inGame) {
-                prepSpecial= true;
-                continue;
-            }
-            if ((c == 'q' || c == 'Q') && prepSpecial) {
-                saveGame(game);
-                break;
-            }
-            if ((c == 'l' || c == 'L') && prepSpecial) {
-                game.toggleDark();
-                prepSpecial = false;
-                continue;
-            }
-            if ((c == 'p' || c == 'P') && prepSpecial) {
-                renderPaths = !renderPaths;
-                prepSpecial = false;
-                continue;
-            }
-            if ((c=='h' || c == 'H') && prepSpecial) {
-                inGame = false;
-                helpScreen = true;
-                printHelpScreen();
-            }
-            if (helpScreen && (c == 'q' || c == 'Q')) {
-                inGame = true;
-                helpScreen = false;
-            }
-            if (prepSpecial) {
-                // If we reach here it means we input an invalid special command
-                prepSpecial = false;
-                continue;
-            }
-        }
-        TETile[][] world = game.getWorld();
-        //System.out.println(TETile.toString(world));
-        return game.getWorld();
+    /**
+     * Same as interactWithInputString, but reads the characters from inputSource one at a time
+     * as they're needed. With a ReaderInputSource or ChannelInputSource, this can replay inputs
+     * much too big to keep in memory as a String (e.g. keystroke logs from a file or stdin).
+     *
+     * @param inputSource the characters to interact with
+     * @return the 2D TETile[][] representing the state of the world
+     */
+    public TETile[][] interactWithInputSource(InputSource inputSource) {
+        return new GameSession(SAVE_FILE).play(inputSource);
     }
 }
@@ -0,0 +1,158 @@
+package byow.Core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static byow.Core.Direction.*;
+
+/**
+ * Distance-to-player field over a GridPathfinder's walkability grid.
+ * The Game moves the target once per tick; the field is then computed with a single BFS from the
+ * target the first time an enemy asks for it, and every enemy reads its next step from it in O(1).
+ * This keeps the cost of chasing flat no matter how many enemies are aggro'd.
+ * The distance and queue arrays are rebuilt on demand, so they are not written into saves.
+ */
+public class FlowField implements Serializable {
+    private final GridPathfinder _grid;
+    /* distance from every cell to the target, or -1 if the cell can't reach it */
+    private transient int[] _distances;
+    private transient int[] _queue;
+    /* true iff _distances matches the current target; false after loading a save */
+    private transient boolean _fresh;
+    private int _targetX;
+    private int _targetY;
+
+    public FlowField(GridPathfinder grid) {
+        _grid = grid;
+    }
+
+    /**
+     * Moves the target of the field. The field is recomputed lazily the next time it's read.
+     */
+    public void setTarget(int x, int y) {
+        if (x != _targetX || y != _targetY) {
+            _fresh = false;
+        }
+        _targetX = x;
+        _targetY = y;
+    }
+
+    /**
+     * Returns the length of the shortest path from (x, y) to the target, or -1 if there is none.
+     */
+    public int distance(int x, int y) {
+        if (!_grid.isWalkable(x, y)) {
+            return -1;
+        }
+        compute();
+        return _distances[_grid.index(x, y)];
+    }
+
+    /**
+     * Returns the first step of a shortest path from (x, y) to the target. Neighbours are tried in
+     * the order NORTH, SOUTH, EAST, WEST, so ties are always broken the same way.
+     * @return NOPE if (x, y) is the target or can't reach it.
+     */
+    public Direction nextStep(int x, int y) {
+        int d = distance(x, y);
+        if (d <= 0) {
+            return NOPE;
+        }
+        if (distance(x, y + 1) == d - 1) {
+            return NORTH;
+        } else if (distance(x, y - 1) == d - 1) {
+            return SOUTH;
+        } else if (distance(x + 1, y) == d - 1) {
+            return EAST;
+        } else if (distance(x - 1, y) == d - 1) {
+            return WEST;
+        }
+        return NOPE;
+    }
+
+    /**
+     * Follows the field from (x, y) down to the target, writing the steps into plan.
+     * plan is cleared first, and left empty if the target can't be reached.
+     * @return the length of the path, or -1 if there is no path.
+     */
+    public int followPath(int x, int y, Deque<Direction> plan) {
+        plan.clear();
+        int length = distance(x, y);
+        for (int i = 0; i < length; i++) {
+            Direction step = nextStep(x, y);
+            plan.addLast(step);
+            switch (step) {
+                case NORTH:
+                    y++;
+                    break;
+                case SOUTH:
+                    y--;
+                    break;
+                case EAST:
+                    x++;
+                    break;
+                case WEST:
+                    x--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Runs a BFS out from the target, if the field isn't already up to date.
+     */
+    private void compute() {
+        if (_fresh) {
+            return;
+        }
+        int width = _grid.width();
+        int height = _grid.height();
+        if (_distances == null) {
+            _distances = new int[width * height];
+            _queue = new int[width * height];
+        }
+        Arrays.fill(_distances, -1);
+        _fresh = true;
+        if (!_grid.isWalkable(_targetX, _targetY)) {
+            return;
+        }
+
+        int head = 0;
+        int tail = 0;
+        int target = _grid.index(_targetX, _targetY);
+        _distances[target] = 0;
+        _queue[tail++] = target;
+        while (head < tail) {
+            int current = _queue[head++];
+            int x = current / height;
+            int y = current % height;
+            int next = _distances[current] + 1;
+            tail = visit(x, y + 1, next, tail);
+            tail = visit(x, y - 1, next, tail);
+            tail = visit(x + 1, y, next, tail);
+            tail = visit(x - 1, y, next, tail);
+        }
+    }
+
+    /**
+     * Helper for compute. Labels (x, y) with distance and enqueues it if it's walkable and
+     * hasn't been reached yet.
+     * @return the new tail of the queue.
+     */
+    private int visit(int x, int y, int distance, int tail) {
+        if (!_grid.isWalkable(x, y)) {
+            return tail;
+        }
+        int i = _grid.index(x, y);
+        if (_distances[i] != -1) {
+            return tail;
+        }
+        _distances[i] = distance;
+        _queue[tail] = i;
+        return tail + 1;
+    }
+}
@@ -1,10 +1,16 @@
 package byow.Core;
 
 import byow.TileEngine.TETile;
+import byow.TileEngine.WorldDelta;
+import byow.TileEngine.WorldModel;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
 
 import static byow.TileEngine.Tileset.*;
@@ -13,16 +19,35 @@ import static byow.TileEngine.Tileset.*;
  *  Class that describes the current state of a Labyrinthian game.
  */
 public class Game implements Serializable {
+    /* a chunked game's window is this many chunks wide and high, or as wide or high as the
+    terrain if that's smaller */
+    static final int WINDOW_CHUNKS = 5;
+    /* how far around the player a chunked game keeps its terrain loaded: far enough that every
+    chunk of the window the player could move it to next is ready before it's needed */
+    static final int LOAD_RADIUS = (WINDOW_CHUNKS / 2 + 1) * ChunkedWorld.CHUNK_SIZE;
 
     /* player character */
     Player _player;
-    /* world with paths filled in*/
-    TETile[][] _world;
-    /* we maintain a clean copy of the world; passed to enemies for pathfinding purposes. */
-    TETile[][] _worldNoPaths;
+    /* the world, with enemies' paths kept as a separate layer. Enemies only look at the tiles,
+    so they get the same model for pathfinding. A chunked game's window isn't saved, since it
+    can be made again from the terrain (see writeObject). */
+    transient WorldModel _world;
     /* indicates whether the lights are on or off */
     boolean _dark;
     ArrayList<Enemy> _enemies = new ArrayList<>();
+    /* walkability grid shared by all enemies for pathfinding; walls never change. It and the
+    graphs below are made from _world, so they're rebuilt when the game is loaded rather than
+    saved. */
+    transient GridPathfinder _pathfinder;
+    /* distance to the player, recomputed at most once per tick for all aggro'd enemies */
+    transient FlowField _flowField;
+    /* graph of room entrances for hierarchical pathfinding; null if the rooms aren't known.
+    Saved, since the rooms it's made from aren't. */
+    RoomNavigator _roomNavigator;
+    /* the world's walkable tiles with corridors compressed into single edges */
+    transient NavGraph _navGraph;
+    /* distances from a few landmark tiles, for the A* heuristic */
+    transient LandmarkOracle _landmarks;
     ArrayList<Item> _items;
 
     /* return true iff the game is still running */
@@ -30,41 +55,298 @@ public class Game implements Serializable {
     int _ticks;
     Difficulty _difficulty;
 
+    /* where the exit is; in a chunked game, where it is in the terrain */
     int _exitX;
     int _exitY;
 
     Random _random;
+    /* the seed the world was generated from, or null if the game was made from a world */
+    Long _seed;
+    /* everything done to the game since it was generated, or null if it isn't being logged
+    (e.g. the game was loaded from a snapshot, so the start of it is unknown) */
+    InputLog _log;
+    /* where events are journalled for crash recovery, or null if they aren't */
+    transient Journal _journal;
+    /* how the crawlers chase the player, for crawlers added to a chunked game later on */
+    ChaseMode _chaseMode = ChaseMode.FLOW_FIELD;
+    /* the terrain of a chunked game (see generateChunked), or null. In a chunked game _world is
+    only a window onto the terrain, whose bottom left tile is (_originX, _originY) of the
+    terrain, and the player, enemies and pathfinding all work in the window's coordinates.
+    Chunked games aren't logged, and are saved by serializing them. */
+    ChunkedWorld _terrain;
+    int _originX;
+    int _originY;
 
 
+    /**
+     * Generates a new width by height world from seed and makes a game of it. The game's random
+     * numbers come from a GameRandom with the same seed, so the game can be saved compactly by
+     * SaveCodec. Throws an IllegalArgumentException if the world is too small to hold a player.
+     */
+    public static Game generate(long seed, Difficulty difficulty, int width, int height) {
+        WorldGenerator w = new WorldGenerator(width, height, seed, difficulty);
+        Game game = new Game(w.generateWorld(), new GameRandom(seed), difficulty, w.getRooms());
+        game._seed = seed;
+        // saves only store the cells that differ from the generated world
+        game._world.markBaseline();
+        game._log = new InputLog(seed, difficulty, width, height,
+                InputLog.DEFAULT_KEYFRAME_INTERVAL);
+        return game;
+    }
+
+    /**
+     * Makes a game in a world of at least width by height tiles, rounded up to whole chunks,
+     * whose terrain is a ChunkedWorld that's generated from seed as the player and crawlers get
+     * near it. Only the WINDOW_CHUNKS by WINDOW_CHUNKS chunks around the player are in the game's
+     * WorldModel, and the window moves as the player explores, so how much memory the game
+     * takes doesn't depend on the size of the world. The player starts in the bottom left chunk
+     * and the exit is in the top right one. Each chunk gets the difficulty's number of crawlers
+     * whenever it comes into the window, and crawlers that leave the window are gone.
+     */
+    public static Game generateChunked(long seed, Difficulty difficulty, int width, int height) {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        ChunkedWorld terrain = new ChunkedWorld(seed, difficulty, (width - 1) / size + 1,
+                (height - 1) / size + 1);
+        return new Game(terrain, new GameRandom(seed), difficulty);
+    }
+
     public Game(TETile[][] world, Random random, Difficulty difficulty) {
-        _world = world;
-        _worldNoPaths = TETile.copyOf(world);
+        this(world, random, difficulty, null);
+    }
+
+    /**
+     * Makes a Game from a freshly generated world.
+     * Throws an IllegalArgumentException if the world has no player in it, which happens when
+     * it's too small for the WorldGenerator to fit a room in.
+     * @param rooms the rooms the world was generated from, used to build the graph of room
+     *              entrances for hierarchical pathfinding. May be null.
+     */
+    public Game(TETile[][] world, Random random, Difficulty difficulty, List<Room> rooms) {
+        _world = new WorldModel(world);
         _random = random;
         _dark = true;
         _difficulty = difficulty;
+        buildNavigation();
+        if (rooms != null && !rooms.isEmpty()) {
+            _roomNavigator = new RoomNavigator(_pathfinder, rooms);
+        }
 
         // parse the TETile array
-        for (int i = 0; i < _world.length; i++) {
-            for (int j = 0; j < _world[0].length; j++ ) {
+        for (int i = 0; i < world.length; i++) {
+            for (int j = 0; j < world[0].length; j++ ) {
                 // parse each character
-                TETile currentTile = _world[i][j];
+                TETile currentTile = world[i][j];
                 if (AVATAR.equals(currentTile)) { // player avatar
                     _player = new Player(i, j, _difficulty.DREAD, _difficulty.DREAD_DECAY,
                             _difficulty.VISION_RANGE);
                 } else if (currentTile.equals(CRAWLER)) {
                     _enemies.add(new Crawler(i, j, _difficulty.CRAWLER_RANGE,
                             _difficulty.CRAWLER_SPEED,
-                            random, world));
+                            random, _pathfinder, _flowField, _roomNavigator,
+                            _navGraph));
                 } else if (currentTile.equals(EXIT)) {
                     _exitX = i;
                     _exitY = j;
-                    System.out.println(_exitX + ", " + _exitY);
                 }
             }
         }
+        if (_player == null) {
+            throw new IllegalArgumentException("The " + world.length + "x" + world[0].length
+                    + " world has no room for the player.");
+        }
+        _running = true;
+    }
+
+    /**
+     * Makes a chunked game; see generateChunked.
+     */
+    private Game(ChunkedWorld terrain, Random random, Difficulty difficulty) {
+        _terrain = terrain;
+        _random = random;
+        _dark = true;
+        _difficulty = difficulty;
+        int[] start = findFloor(0, 0, false);
+        int[] exit = findFloor(terrain.chunksWide() - 1, terrain.chunksHigh() - 1, true);
+        _exitX = exit[0];
+        _exitY = exit[1];
+        // the window starts at (0, 0), so for now the player is in the terrain's coordinates
+        _player = new Player(start[0], start[1], _difficulty.DREAD, _difficulty.DREAD_DECAY,
+                _difficulty.VISION_RANGE);
+        loadWindow(0, 0);
         _running = true;
     }
 
+    /**
+     * Builds the walkability grid and the graphs the enemies share for pathfinding in _world,
+     * apart from the RoomNavigator, which needs the rooms.
+     * The NavGraph and the LandmarkOracle are only built the first time a crawler's ChaseMode
+     * searches them, so moving a chunked game's window doesn't pay for the ones it never uses.
+     */
+    private void buildNavigation() {
+        _pathfinder = new GridPathfinder(_world);
+        _flowField = new FlowField(_pathfinder);
+        _navGraph = new NavGraph(_pathfinder);
+        _landmarks = new LandmarkOracle(_pathfinder, LandmarkOracle.DEFAULT_LANDMARKS);
+        _pathfinder.setLandmarks(_landmarks);
+    }
+
+    /**
+     * Returns the first floor tile of chunk (cx, cy) of the terrain, in the terrain's
+     * coordinates, looking from the bottom left like WorldGenerator's addPlayer, or from the top
+     * right if fromTop is true.
+     */
+    private int[] findFloor(int cx, int cy, boolean fromTop) {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int x = cx * size + (fromTop ? size - 1 - j : j);
+                int y = cy * size + (fromTop ? size - 1 - i : i);
+                if (_terrain.tile(x, y).equals(FLOOR)) {
+                    return new int[] {x, y};
+                }
+            }
+        }
+        throw new IllegalArgumentException("Chunk (" + cx + ", " + cy + ") has no floor.");
+    }
+
+    /**
+     * Moves a chunked game's window so that the player's chunk is in the middle of it, as far
+     * as the edges of the terrain allow, once the player walks into a chunk on the edge of the
+     * window. So the player is always a chunk or more from the edges of the window (apart from
+     * the terrain's own edges), which is further than the camera can see.
+     */
+    private void moveWindow() {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        int x = _player.getX() / size;
+        int y = _player.getY() / size;
+        if (x > 0 && y > 0 && x < _world.width() / size - 1 && y < _world.height() / size - 1) {
+            return;
+        }
+        int originX = windowStart(x + _originX / size, _terrain.chunksWide()) * size;
+        int originY = windowStart(y + _originY / size, _terrain.chunksHigh()) * size;
+        if (originX != _originX || originY != _originY) {
+            loadWindow(originX, originY);
+        }
+    }
+
+    /**
+     * Returns the first chunk of the window around chunk c, along an axis of the terrain that's
+     * chunks long.
+     */
+    private static int windowStart(int c, int chunks) {
+        return Math.max(0, Math.min(c - WINDOW_CHUNKS / 2,
+                chunks - Math.min(WINDOW_CHUNKS, chunks)));
+    }
+
+    /**
+     * Makes _world the window of the terrain whose bottom left tile is (originX, originY), and
+     * moves the player and the enemies into it. Enemies that aren't in the new window are
+     * dropped, and the chunks that weren't in the old window (apart from the player's) get new
+     * crawlers. The edges of the window are walled off, so nothing can walk out of it.
+     */
+    private void loadWindow(int originX, int originY) {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        int width = Math.min(WINDOW_CHUNKS, _terrain.chunksWide()) * size;
+        int height = Math.min(WINDOW_CHUNKS, _terrain.chunksHigh()) * size;
+        int dx = _originX - originX;
+        int dy = _originY - originY;
+        TETile[][] window = windowTiles(originX, originY);
+        _player.restore(_player.getX() + dx, _player.getY() + dy, _player.getDread(),
+                _player.getAlive());
+        window[_player.getX()][_player.getY()] = AVATAR;
+
+        ArrayList<Enemy> kept = new ArrayList<>();
+        for (Enemy e : _enemies) {
+            int x = e.getX() + dx;
+            int y = e.getY() + dy;
+            if (x >= 0 && y >= 0 && x < width && y < height && window[x][y].equals(FLOOR)) {
+                window[x][y] = CRAWLER;
+                kept.add(e);
+            }
+        }
+        ArrayList<int[]> spawns = new ArrayList<>();
+        int playerChunkX = (_player.getX() + originX) / size;
+        int playerChunkY = (_player.getY() + originY) / size;
+        for (int cx = originX / size; cx < (originX + width) / size; cx++) {
+            for (int cy = originY / size; cy < (originY + height) / size; cy++) {
+                boolean wasInWindow = _world != null && cx * size >= _originX
+                        && cx * size < _originX + _world.width() && cy * size >= _originY
+                        && cy * size < _originY + _world.height();
+                if (!wasInWindow && !(cx == playerChunkX && cy == playerChunkY)) {
+                    spawnCrawlers(window, cx, cy, originX, originY, spawns);
+                }
+            }
+        }
+
+        _originX = originX;
+        _originY = originY;
+        _world = new WorldModel(window);
+        if (!_dark) {
+            _world.flipAllDark('@'); // the player avatar is always lit
+        }
+        buildNavigation();
+        for (Enemy e : kept) {
+            ((Crawler) e).moveWindow(dx, dy, _pathfinder, _flowField, _roomNavigator,
+                    _navGraph);
+        }
+        _enemies = kept;
+        for (int[] spawn : spawns) {
+            Crawler crawler = new Crawler(spawn[0], spawn[1], _difficulty.CRAWLER_RANGE,
+                    _difficulty.CRAWLER_SPEED, _random, _pathfinder, _flowField,
+                    _roomNavigator, _navGraph);
+            crawler.setChaseMode(_chaseMode);
+            _enemies.add(crawler);
+        }
+    }
+
+    /**
+     * Returns the tiles of the terrain in the window whose bottom left tile is
+     * (originX, originY), with its edges walled off and the exit put in, if it's in the window.
+     */
+    private TETile[][] windowTiles(int originX, int originY) {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        int width = Math.min(WINDOW_CHUNKS, _terrain.chunksWide()) * size;
+        int height = Math.min(WINDOW_CHUNKS, _terrain.chunksHigh()) * size;
+        TETile[][] window = _terrain.toTiles(originX, originY, width, height);
+        for (int x = 0; x < width; x++) {
+            window[x][0] = WALL;
+            window[x][height - 1] = WALL;
+        }
+        for (int y = 0; y < height; y++) {
+            window[0][y] = WALL;
+            window[width - 1][y] = WALL;
+        }
+        int exitX = _exitX - originX;
+        int exitY = _exitY - originY;
+        if (exitX >= 0 && exitY >= 0 && exitX < width && exitY < height) {
+            window[exitX][exitY] = EXIT;
+        }
+        return window;
+    }
+
+    /**
+     * Puts the crawlers of chunk (cx, cy) of the terrain in window, whose bottom left tile is
+     * (originX, originY) of the terrain, and adds where they are in window to spawns. Where
+     * they go only depends on the chunk's spawn seed: each crawler tries a few random tiles of
+     * the chunk, and is left out if none of them is free floor.
+     */
+    private void spawnCrawlers(TETile[][] window, int cx, int cy, int originX, int originY,
+                               List<int[]> spawns) {
+        int size = ChunkedWorld.CHUNK_SIZE;
+        Random random = new Random(_terrain.spawnSeed(cx, cy));
+        for (int k = 0; k < _difficulty.CRAWLER_NUM; k++) {
+            for (int tries = 0; tries < 16; tries++) {
+                int x = cx * size + RandomUtils.uniform(random, size) - originX;
+                int y = cy * size + RandomUtils.uniform(random, size) - originY;
+                if (window[x][y].equals(FLOOR)) {
+                    window[x][y] = CRAWLER;
+                    spawns.add(new int[] {x, y});
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * Returns true iff the game is still running.
      * @return true iff the game is still running.
@@ -79,19 +361,35 @@ public class Game implements Serializable {
      * Returns the outcome of the turn.
      */
     public Outcome tickTime(char move) {
+        Outcome outcome = advance(move);
+        if (outcome != Outcome.NOT_VALID_MOVE) {
+            record(InputLog.moveEvent(move));
+        }
+        return outcome;
+    }
+
+    /**
+     * Does the work of tickTime.
+     */
+    private Outcome advance(char move) {
         if (!_player.checkValidMove(move, _world)) {
             return Outcome.NOT_VALID_MOVE;
         }
-        // erase all paths from the world
-        _world = TETile.copyOf(_worldNoPaths);
+        // start a new delta, then erase all paths from the world
+        _world.delta().clear();
+        _world.clearPaths();
 
         updatePlayerPosition(move);
+        _flowField.setTarget(_player.getX(), _player.getY());
         _player.decrementDread();
         updateEnemyPositions();
+        if (_terrain != null) {
+            moveWindow();
+        }
+        updateFieldOfView();
         _ticks ++;
         // check if the player has won the game
-        System.out.println(_player.getX() + ", " + _player.getY());
-        if (_player.getX() == _exitX && _player.getY() == _exitY) {
+        if (_player.getX() + _originX == _exitX && _player.getY() + _originY == _exitY) {
             _running = false;
             return Outcome.WON_GAME;
         }
@@ -102,8 +400,8 @@ public class Game implements Serializable {
         }
 
         // update position of enemies
-        for (Enemy e: _enemies) {
-            if (e.nextTo(_player)) {
+        for (int k = 0; k < _enemies.size(); k++) {
+            if (_enemies.get(k).nextTo(_player)) {
                 _player.makeNotAlive();
                 _running = false;
                 return Outcome.KILLED_BY_CRAWLER;
@@ -136,10 +434,11 @@ public class Game implements Serializable {
                 newX++;
                 break;
         }
-        _world[x][y] = _world[newX][newY].copyOfNotPath();
-        _worldNoPaths[x][y] = _worldNoPaths[newX][newY].copyOfNotPath();
-        _world[newX][newY] = AVATAR;
-        _worldNoPaths[newX][newY] = AVATAR;
+        _world.copyCell(newX, newY, x, y);
+        _world.set(newX, newY, AVATAR);
+        if (_terrain != null) {
+            _terrain.loadAround(newX + _originX, newY + _originY, LOAD_RADIUS);
+        }
     }
 
     /**
@@ -147,25 +446,23 @@ public class Game implements Serializable {
      */
     private void updateEnemyPositions() {
         TETile enemyTile = null;
-        for (Enemy e : _enemies) {
+        // indexed loops, so that a tick doesn't make any iterators
+        for (int k = 0; k < _enemies.size(); k++) {
+            Enemy e = _enemies.get(k);
             if (e instanceof Crawler) {
                 enemyTile = CRAWLER;
             }
 
-            if (!_dark) {
-                enemyTile = enemyTile.copyOfDarkFlipped();
-            }
-
             int x = e.getX();
             int y = e.getY();
             int newX = x;
             int newY = y;
-            Direction direction = e.updatePosition(_player, _worldNoPaths);
+            Direction direction = e.updatePosition(_player, _world);
 
             // update the world with the enemy's path.
             updateEnemyPath(e, _world);
 
-            // update the _world and _worldNoPath arrays without keeping paths.
+            // move the enemy's tile; neither cell is left on a path.
             switch (direction) {
                 case NORTH:
                     newY++;
@@ -182,22 +479,29 @@ public class Game implements Serializable {
                 case NOPE:
                     break;
             }
-            _world[x][y] = _world[newX][newY].copyOfNotPath();
-            _worldNoPaths[x][y] = _worldNoPaths[newX][newY].copyOfNotPath();
-            _world[newX][newY] = enemyTile;
-            _worldNoPaths[newX][newY] = enemyTile;
+            _world.copyCell(newX, newY, x, y);
+            _world.set(newX, newY, enemyTile);
+            if (!_dark) {
+                _world.flipDark(newX, newY);
+            }
+            if (_terrain != null) {
+                // keeps the chunks the crawler could chase the player through from being dropped
+                _terrain.loadAround(newX + _originX, newY + _originY, e.searchRadius());
+            }
         }
     }
     /**
-     * Given an enemy e, fill in the world with its path.
+     * Given an enemy e, mark its path in the world.
      * @param e
-     * @return TETile[][]
      */
-    private void updateEnemyPath(Enemy e, TETile[][] world) {
-        LinkedList<Direction> plan = e.getPlan();
+    private void updateEnemyPath(Enemy e, WorldModel world) {
+        ArrayDeque<Direction> plan = e.getPlan();
         int x = e.getX();
         int y = e.getY();
-        for (Direction currentDirection: plan) {
+        // walk the plan by moving each step to the back, which leaves it as it was at the end
+        for (int k = plan.size(); k > 0; k--) {
+            Direction currentDirection = plan.pollFirst();
+            plan.addLast(currentDirection);
             switch (currentDirection) {
                 case NORTH:
                     // change the pointers
@@ -215,24 +519,78 @@ public class Game implements Serializable {
                 case NOPE:
                     break;
             }
-            world[x][y] = world[x][y].copyOfPath();
+            world.markPath(x, y);
         }
     }
 
+    /**
+     * Changes how every crawler in the game plans its chase.
+     */
+    public void setChaseMode(ChaseMode chaseMode) {
+        _chaseMode = chaseMode;
+        for (Enemy e : _enemies) {
+            if (e instanceof Crawler) {
+                ((Crawler) e).setChaseMode(chaseMode);
+            }
+        }
+        record((byte) (InputLog.CHASE_MODE + chaseMode.ordinal()));
+    }
+
     /**
      * Changes world from dark to light.
      */
     public void toggleDark() {
         _dark = !_dark;
+        _world.flipAllDark('@'); // the player avatar is always lit
+        record(InputLog.LIGHTS);
+    }
 
-        for (int i = 0; i < _world.length; i++) {
-            for (int j = 0; j < _world[0].length; j++ ) {
-                if (_world[i][j].character() == '@') { // player avatar
-                    continue;
-                }
-                _world[i][j] = _world[i][j].copyOfDarkFlipped();
-                _worldNoPaths[i][j] = _worldNoPaths[i][j].copyOfDarkFlipped();
-            }
+    /**
+     * Adds an event to the journal and the input log, if there are any, and takes a keyframe
+     * when it's due.
+     */
+    private void record(byte event) {
+        if (_journal != null) {
+            _journal.append(event);
+        }
+        if (_log == null) {
+            return;
+        }
+        _log.record(event);
+        if (_log.needsKeyframe()) {
+            _log.setKeyframe(new GameSnapshot(this));
+        }
+    }
+
+    /**
+     * Returns the world as it should be drawn. While it's dark, the tiles around the player are
+     * lit up, which is done with the model's field of view rather than by changing the tiles.
+     * The model is the Game's own, so it shouldn't be changed.
+     */
+    public WorldModel getWorldModel() {
+        updateFieldOfView();
+        return _world;
+    }
+
+    /**
+     * Returns the cells that changed during the last tick: the player's and enemies' moves, the
+     * paths that were erased and drawn, and the tiles that came into or went out of view. Turning
+     * the lights on or off since then makes the delta full. The delta is cleared at the start of
+     * every tick, so read it before calling tickTime again.
+     */
+    public WorldDelta getDelta() {
+        updateFieldOfView();
+        return _world.delta();
+    }
+
+    /**
+     * Moves the model's field of view to the player, or removes it if the lights are on.
+     */
+    private void updateFieldOfView() {
+        if (_dark) {
+            _world.setFieldOfView(_player.getX(), _player.getY(), _player.getFOV());
+        } else {
+            _world.clearFieldOfView();
         }
     }
 
@@ -241,40 +599,47 @@ public class Game implements Serializable {
      * @return The current world, as a TETile array.
      */
     public TETile[][] getWorld() {
+        return getWorldModel().toTiles();
+    }
 
-        if (!_dark) {
-            return _world;
-        }
-
-        TETile[][] toReturn = TETile.copyOf(_world);
-
-        int radius = _player.getFOV();
-        int center_x = _player.getX();
-        int center_y = _player.getY();
-
-        // Get a square centred at the player and of side length radius*2+1
-        //    x
-        //   xxx
-        //  xxxxx
-        // xxx@xxx
-        //  xxxxx
-        //   xxx
-        //    x
-        for (int y = center_y - radius; y < center_y + radius + 1; y++) {
-            for (int x = center_x - radius; x < center_x + radius + 1; x++) {
-                // flip colour if x and y coords are taxicab metric distance from center
-                // open ball for radius r for the taxicab metric is a diamond
-                if ((y==center_y && x==center_x) || x<0 || y < 0
-                        || x >= _world.length || y >=_world[0].length) {
-                    continue;
-                }
-                if (Math.abs(x - center_x) + Math.abs(y - center_y) <= radius) {
-                    toReturn[x][y] = toReturn[x][y].copyOfDarkFlipped();
-                }
+    /**
+     * Saves the game without anything that can be made again when it's loaded: the pathfinding
+     * structures, and in a chunked game the window, so a chunked save holds little more than
+     * the terrain's seed and edits, the origin, the player and the enemies.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(_terrain == null ? _world : null);
+    }
+
+    /**
+     * Loads a game saved by writeObject, and rebuilds what it left out.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _world = (WorldModel) in.readObject();
+        if (_terrain != null) {
+            TETile[][] window = windowTiles(_originX, _originY);
+            for (Enemy e : _enemies) {
+                window[e.getX()][e.getY()] = CRAWLER;
+            }
+            window[_player.getX()][_player.getY()] = AVATAR;
+            _world = new WorldModel(window);
+            if (!_dark) {
+                _world.flipAllDark('@'); // the player avatar is always lit
+            }
+            for (Enemy e : _enemies) {
+                updateEnemyPath(e, _world);
+            }
+            updateFieldOfView();
+        }
+        buildNavigation();
+        for (Enemy e : _enemies) {
+            if (e instanceof Crawler) {
+                ((Crawler) e).setNavigation(_pathfinder, _flowField, _roomNavigator, _navGraph);
+            } else {
+                e._flowField = _flowField;
             }
         }
-        return toReturn;
     }
-
-
 }
@@ -0,0 +1,52 @@
+package byow.Core;
+
+import java.util.Random;
+
+/**
+ * A Random whose state can be read and restored, so a save can store it as a single number.
+ * It's the same linear congruential generator as java.util.Random (same constants, same
+ * scrambling of the seed), so a GameRandom gives exactly the same numbers as a Random made with
+ * the same seed; games played with either are the same.
+ *
+ * nextGaussian keeps a second number between calls in Random, which isn't part of the state.
+ * Nothing in the game uses it (RandomUtils.gaussian doesn't).
+ */
+public class GameRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /* the generator's 48 bits; set by setSeed, which Random's constructor calls */
+    private long _state;
+
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        _state = (seed ^ MULTIPLIER) & MASK;
+        super.setSeed(seed);
+    }
+
+    @Override
+    protected int next(int bits) {
+        _state = (_state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (_state >>> (48 - bits));
+    }
+
+    /**
+     * Returns the current state of the generator, for setState.
+     */
+    public long getState() {
+        return _state;
+    }
+
+    /**
+     * Puts the generator back in a state returned by getState; the numbers it gives from then on
+     * are the ones it gave after that call.
+     */
+    public void setState(long state) {
+        _state = state & MASK;
+    }
+}
@@ -0,0 +1,191 @@
+package byow.Core;
+
+import byow.TileEngine.TETile;
+
+import java.io.File;
+
+/**
+ * A game played by typing keys, without a screen. This is the same menu -> seed -> difficulty ->
+ * game sequence that Engine.interactWithKeyboard draws, except that nothing is drawn: the keys
+ * just move the session from one state to the next. A session never uses StdDraw (or anything
+ * else that needs a display), so it's what batch runs, tests and servers should use.
+ *
+ * Keys that don't mean anything in the current state are ignored. Once ":q" is typed the game is
+ * saved and the session is finished, and any keys after that are ignored too.
+ */
+public class GameSession {
+    /**
+     * Where in the key sequence the session is.
+     */
+    private enum State {
+        MAIN_MENU, SEED, DIFFICULTY, IN_GAME, SPECIAL, HELP_SCREEN, FINISHED
+    }
+
+    private final File _saveFile;
+    private State _state = State.MAIN_MENU;
+    private final StringBuilder _seed = new StringBuilder();
+    private Game _game;
+    /* toggled by :p; only matters to whoever draws the game */
+    private boolean _renderPaths;
+    /* what ":q" saves the game as */
+    private SaveCodec.Format _saveFormat = SaveCodec.Format.SNAPSHOT;
+
+    /**
+     * @param saveFile the file "l" loads the game from and ":q" saves it to.
+     */
+    public GameSession(File saveFile) {
+        _saveFile = saveFile;
+    }
+
+    /**
+     * Changes what ":q" saves the game as; snapshots by default.
+     */
+    public void setSaveFormat(SaveCodec.Format format) {
+        _saveFormat = format;
+    }
+
+    /**
+     * Types every key from inputSource, stopping early if the session finishes.
+     * @return the world at the end, or null if no game was started or loaded.
+     */
+    public TETile[][] play(InputSource inputSource) {
+        while (_state != State.FINISHED && inputSource.possibleNextInput()) {
+            type(inputSource.getNextKey());
+        }
+        if (_game == null) {
+            return null;
+        }
+        return _game.getWorld();
+    }
+
+    /**
+     * Types a single key.
+     */
+    public void type(char c) {
+        switch (_state) {
+            case MAIN_MENU:
+                if (c == 'n' || c == 'N') {
+                    _state = State.SEED;
+                } else if (c == 'l' || c == 'L') {
+                    _game = loadGame();
+                    // nothing to play if there's no save
+                    _state = _game == null ? State.FINISHED : State.IN_GAME;
+                }
+                break;
+            case SEED:
+                if (Character.isDigit(c)) {
+                    _seed.append(c);
+                } else if (c == 's' || c == 'S') {
+                    _state = State.DIFFICULTY;
+                }
+                break;
+            case DIFFICULTY:
+                Difficulty difficulty = difficulty(c);
+                if (difficulty != null) {
+                    _game = newGame(Long.parseLong(_seed.toString()), difficulty);
+                    _state = State.IN_GAME;
+                }
+                break;
+            case IN_GAME:
+            case SPECIAL:
+                // moves still count after a ':', and the next non-move key is the special command
+                if (isMove(c)) {
+                    _game.tickTime(c);
+                } else if (c == ':') {
+                    _state = State.SPECIAL;
+                } else if (_state == State.SPECIAL) {
+                    special(c);
+                }
+                break;
+            case HELP_SCREEN:
+                if (c == 'q' || c == 'Q') {
+                    _state = State.IN_GAME;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Handles the key typed after a ':'.
+     */
+    private void special(char c) {
+        switch (c) {
+            case 'q', 'Q':
+                SaveCodec.save(_saveFile, _game, _saveFormat);
+                _state = State.FINISHED;
+                return;
+            case 'l', 'L':
+                _game.toggleDark();
+                break;
+            case 'p', 'P':
+                _renderPaths = !_renderPaths;
+                break;
+            case 'h', 'H':
+                _state = State.HELP_SCREEN;
+                return;
+            default:
+                // an invalid special command does nothing
+                break;
+        }
+        _state = State.IN_GAME;
+    }
+
+    private static boolean isMove(char c) {
+        return c == 's' || c == 'S' || c == 'w' || c == 'W'
+                || c == 'a' || c == 'A' || c == 'd' || c == 'D';
+    }
+
+    /**
+     * Returns the difficulty selected by c, or null if c doesn't select one.
+     */
+    private static Difficulty difficulty(char c) {
+        switch (c) {
+            case 'e', 'E':
+                return Difficulty.EASY;
+            case 'm', 'M':
+                return Difficulty.MEDIUM;
+            case 'h', 'H':
+                return Difficulty.HARD;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Makes a new Engine.WIDTH by Engine.HEIGHT game from a seed.
+     */
+    private static Game newGame(long seed, Difficulty difficulty) {
+        return Game.generate(seed, difficulty, Engine.WIDTH, Engine.HEIGHT);
+    }
+
+    /**
+     * Loads the game from the save file.
+     * @return null if there's no save file.
+     */
+    private Game loadGame() {
+        if (!_saveFile.exists()) {
+            return null;
+        }
+        return SaveCodec.load(_saveFile);
+    }
+
+    /**
+     * Returns the game being played, or null if there isn't one yet.
+     */
+    public Game game() {
+        return _game;
+    }
+
+    /**
+     * Returns true iff ":q" has been typed (or "l" was typed with nothing to load).
+     */
+    public boolean isFinished() {
+        return _state == State.FINISHED;
+    }
+
+    public boolean renderPaths() {
+        return _renderPaths;
+    }
+}
@@ -0,0 +1,128 @@
+package byow.Core;
+
+import byow.TileEngine.WorldModel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A copy of everything SaveCodec saves about a game, taken at one moment. The world is only
+ * copied where it differs from the world the game was generated with (WorldModel keeps track of
+ * which cells were changed), so making a snapshot takes time in proportion to how much has
+ * changed, not to the size of the world, and is quick enough to do on the game thread between
+ * ticks. Writing the save can then be done from the snapshot on another thread while the game
+ * carries on. Snapshots never change once they're made.
+ */
+public final class GameSnapshot implements Serializable {
+    final long _seed;
+    final Difficulty _difficulty;
+    final int _width;
+    final int _height;
+    final long _randomState;
+    final boolean _dark;
+    final boolean _running;
+    final int _ticks;
+
+    final int _playerX;
+    final int _playerY;
+    final int _playerDread;
+    final int _playerFov;
+    final boolean _playerAlive;
+
+    /* enemy k's fields are element k of each of these */
+    final int[] _enemyX;
+    final int[] _enemyY;
+    final boolean[] _enemyAlive;
+    final boolean[] _enemyAggro;
+    final ChaseMode[] _enemyChaseMode;
+    final Direction[][] _enemyPlan;
+
+    /* the character of each palette tile, in ID order */
+    final char[] _palette;
+    /* the cells that differ from the generated world, in order, and their
+    WorldModel.packedCell */
+    final int[] _changedCells;
+    final int[] _changedValues;
+    /* the indices of the cells on paths, in order */
+    final int[] _pathCells;
+
+    /**
+     * Copies game's state. The game must be one SaveCodec.canEncode accepts.
+     */
+    public GameSnapshot(Game game) {
+        if (!SaveCodec.canEncode(game)) {
+            throw new IllegalArgumentException("Game wasn't made with Game.generate.");
+        }
+        WorldModel world = game._world;
+        _seed = game._seed;
+        _difficulty = game._difficulty;
+        _width = world.width();
+        _height = world.height();
+        _randomState = ((GameRandom) game._random).getState();
+        _dark = game._dark;
+        _running = game._running;
+        _ticks = game._ticks;
+
+        Player player = game._player;
+        _playerX = player.getX();
+        _playerY = player.getY();
+        _playerDread = player.getDread();
+        _playerFov = player.getFOV();
+        _playerAlive = player.getAlive();
+
+        int enemies = game._enemies.size();
+        _enemyX = new int[enemies];
+        _enemyY = new int[enemies];
+        _enemyAlive = new boolean[enemies];
+        _enemyAggro = new boolean[enemies];
+        _enemyChaseMode = new ChaseMode[enemies];
+        _enemyPlan = new Direction[enemies][];
+        for (int k = 0; k < enemies; k++) {
+            Enemy e = game._enemies.get(k);
+            _enemyX[k] = e._x;
+            _enemyY[k] = e._y;
+            _enemyAlive[k] = e._alive;
+            _enemyAggro[k] = e._aggro;
+            _enemyChaseMode[k] = ChaseMode.FLOW_FIELD;
+            if (e instanceof Crawler) {
+                _enemyChaseMode[k] = ((Crawler) e)._chaseMode;
+            }
+            _enemyPlan[k] = e._plan.toArray(new Direction[0]);
+        }
+
+        _palette = new char[world.paletteSize()];
+        for (int id = 0; id < _palette.length; id++) {
+            _palette[id] = world.paletteTile(id).character();
+        }
+        int changed = 0;
+        for (int i = world.nextChangedCell(0); i >= 0; i = world.nextChangedCell(i + 1)) {
+            changed++;
+        }
+        _changedCells = new int[changed];
+        _changedValues = new int[changed];
+        changed = 0;
+        for (int i = world.nextChangedCell(0); i >= 0; i = world.nextChangedCell(i + 1)) {
+            _changedCells[changed] = i;
+            _changedValues[changed] = world.packedCell(i);
+            changed++;
+        }
+
+        // the model's list of path cells can have repeats and cells that left the path
+        int[] paths = new int[world.pathListSize()];
+        int count = 0;
+        for (int k = 0; k < paths.length; k++) {
+            int i = world.pathListCell(k);
+            if (world.isPath(i / _height, i % _height)) {
+                paths[count++] = i;
+            }
+        }
+        Arrays.sort(paths, 0, count);
+        int distinct = 0;
+        for (int k = 0; k < count; k++) {
+            if (distinct == 0 || paths[k] != paths[distinct - 1]) {
+                paths[distinct++] = paths[k];
+            }
+        }
+        _pathCells = Arrays.copyOf(paths, distinct);
+    }
+}
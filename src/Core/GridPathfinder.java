@@ -0,0 +1,323 @@
+package byow.Core;
+
+import byow.TileEngine.TETile;
+import byow.TileEngine.WorldModel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static byow.Core.Direction.*;
+
+/**
+ * Shortest path search over a flat walkability grid.
+ * Walls never change during a game, so the grid is built once from the world and shared by every
+ * enemy. All edges have weight 1, so a plain BFS gives the same distances as Dijkstra's would.
+ * There is also a bounded A* search, which only looks at cells near the start and the goal. Its
+ * heuristic is the taxicab distance, tightened by a LandmarkOracle if one has been attached.
+ * Cells are indexed as x * height + y, which matches the world[x][y] layout.
+ * The search buffers are kept per thread and reused between searches, so a search does not
+ * allocate once the buffers have grown to the size of the world.
+ */
+public class GridPathfinder implements Serializable {
+    private final int _width;
+    private final int _height;
+    /* one bit per cell; a set bit means the cell can be walked on */
+    private final long[] _walkable;
+    /* landmark distances used to tighten the A* heuristic; null if there are none */
+    private LandmarkOracle _landmarks;
+
+    /* offsets to the NORTH, SOUTH, EAST and WEST neighbours, in cartesian coordinates */
+    private static final int[] DX = new int[]{0, 0, 1, -1};
+    private static final int[] DY = new int[]{1, -1, 0, 0};
+
+    private static final ThreadLocal<SearchBuffers> BUFFERS =
+            ThreadLocal.withInitial(SearchBuffers::new);
+
+    /**
+     * Reusable scratch space for a single search. visited[i] == stamp means cell i was reached
+     * in the current search, so the arrays never need to be cleared between searches.
+     */
+    static class SearchBuffers {
+        int[] parent = new int[0];
+        int[] queue = new int[0];
+        int[] visited = new int[0];
+        /* used by A*: cost[i] is the best known distance to cell i if visited[i] == stamp */
+        int[] cost = new int[0];
+        /* used by A*: closed[i] == stamp means cell i has been expanded */
+        int[] closed = new int[0];
+        /* used by A*: the cells to expand, by priority */
+        MinHeap heap = new MinHeap();
+        int stamp;
+
+        void ensureCapacity(int size) {
+            if (parent.length < size) {
+                parent = new int[size];
+                queue = new int[size];
+                visited = new int[size];
+                cost = new int[size];
+                closed = new int[size];
+                stamp = 0;
+            }
+        }
+
+        int nextStamp() {
+            stamp++;
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                Arrays.fill(closed, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+
+    /**
+     * Builds the walkability grid for a world. Every tile that isn't a wall is walkable.
+     * @param world the world to build the grid from; it is not kept.
+     */
+    public GridPathfinder(TETile[][] world) {
+        this(new WorldModel(world));
+    }
+
+    /**
+     * Builds the walkability grid for a world. Every tile that isn't a wall is walkable.
+     * @param world the world to build the grid from; it is not kept.
+     */
+    public GridPathfinder(WorldModel world) {
+        _width = world.width();
+        _height = world.height();
+        _walkable = new long[(_width * _height + 63) / 64];
+        for (int x = 0; x < _width; x++) {
+            for (int y = 0; y < _height; y++) {
+                if (world.character(x, y) != '#') {
+                    int i = index(x, y);
+                    _walkable[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes A* use landmark distances, on top of the taxicab distance, as its heuristic.
+     */
+    public void setLandmarks(LandmarkOracle landmarks) {
+        _landmarks = landmarks;
+    }
+
+    public int width() {
+        return _width;
+    }
+
+    public int height() {
+        return _height;
+    }
+
+    /**
+     * Returns the flat index of the cell at (x, y).
+     */
+    public int index(int x, int y) {
+        return x * _height + y;
+    }
+
+    /**
+     * Returns true iff (x, y) is inside the world and not a wall.
+     */
+    public boolean isWalkable(int x, int y) {
+        if (x < 0 || x >= _width || y < 0 || y >= _height) {
+            return false;
+        }
+        int i = index(x, y);
+        return (_walkable[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Finds a shortest path from (startX, startY) to (destX, destY) using BFS, and writes it into
+     * plan as a sequence of Directions starting from the start tile. plan is cleared first.
+     * @param plan the deque to fill in; left empty if the destination can't be reached.
+     * @return the length of the path, or -1 if there is no path.
+     */
+    public int shortestPath(int startX, int startY, int destX, int destY, Deque<Direction> plan) {
+        plan.clear();
+        if (!isWalkable(destX, destY)) {
+            return -1;
+        }
+        int size = _width * _height;
+        SearchBuffers buffers = BUFFERS.get();
+        buffers.ensureCapacity(size);
+        int[] parent = buffers.parent;
+        int[] queue = buffers.queue;
+        int[] visited = buffers.visited;
+        int stamp = buffers.nextStamp();
+
+        int start = index(startX, startY);
+        int dest = index(destX, destY);
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        visited[start] = stamp;
+        parent[start] = start;
+
+        boolean found = start == dest;
+        while (head < tail && !found) {
+            int current = queue[head++];
+            int x = current / _height;
+            int y = current % _height;
+            for (int d = 0; d < 4; d++) {
+                int adjX = x + DX[d];
+                int adjY = y + DY[d];
+                if (!isWalkable(adjX, adjY)) {
+                    continue;
+                }
+                int adj = index(adjX, adjY);
+                if (visited[adj] == stamp) {
+                    continue;
+                }
+                visited[adj] = stamp;
+                parent[adj] = current;
+                if (adj == dest) {
+                    found = true;
+                    break;
+                }
+                queue[tail++] = adj;
+            }
+        }
+        if (!found) {
+            return -1;
+        }
+        return tracePath(parent, start, dest, plan);
+    }
+
+    /**
+     * Finds a shortest path from (startX, startY) to (destX, destY) using A* with the taxicab
+     * metric (or the landmark bound, if it's larger) as the heuristic. The search stops as soon
+     * as it reaches the destination, and never looks at cells that can't lie on a path of at
+     * most maxLength steps, so its cost depends on how far away the destination is rather than
+     * on the size of the world.
+     * @param maxLength the longest path worth looking for.
+     * @param plan the deque to fill in; left empty if there is no short enough path.
+     * @return the length of the path, or -1 if there is no path of at most maxLength steps.
+     */
+    public int aStar(int startX, int startY, int destX, int destY, int maxLength,
+                     Deque<Direction> plan) {
+        return aStar(startX, startY, destX, destY, maxLength, null, plan);
+    }
+
+    /**
+     * Same as the other aStar method, except that cells holding a crawler in obstacles are also
+     * treated as walls (apart from the destination).
+     * @param obstacles the current world, or null to only avoid walls.
+     */
+    public int aStar(int startX, int startY, int destX, int destY, int maxLength,
+                     WorldModel obstacles, Deque<Direction> plan) {
+        plan.clear();
+        if (!isWalkable(destX, destY) || !isWalkable(startX, startY)
+                || heuristic(startX, startY, destX, destY) > maxLength) {
+            return -1; // can't be reached within the radius, so don't bother searching
+        }
+        SearchBuffers buffers = BUFFERS.get();
+        buffers.ensureCapacity(_width * _height);
+        int[] parent = buffers.parent;
+        int[] visited = buffers.visited;
+        int[] cost = buffers.cost;
+        int[] closed = buffers.closed;
+        int stamp = buffers.nextStamp();
+
+        int start = index(startX, startY);
+        int dest = index(destX, destY);
+        visited[start] = stamp;
+        cost[start] = 0;
+        parent[start] = start;
+        MinHeap heap = buffers.heap;
+        heap.clear();
+        heap.push(heuristic(startX, startY, destX, destY), start);
+
+        boolean found = false;
+        while (!heap.isEmpty()) {
+            int current = heap.minValue();
+            heap.removeMin();
+            if (closed[current] == stamp) {
+                continue; // stale heap entry
+            }
+            closed[current] = stamp;
+            if (current == dest) {
+                found = true;
+                break;
+            }
+            int x = current / _height;
+            int y = current % _height;
+            int nextCost = cost[current] + 1;
+            for (int d = 0; d < 4; d++) {
+                int adjX = x + DX[d];
+                int adjY = y + DY[d];
+                if (!isWalkable(adjX, adjY)) {
+                    continue;
+                }
+                int adj = index(adjX, adjY);
+                if (closed[adj] == stamp || (visited[adj] == stamp && cost[adj] <= nextCost)) {
+                    continue;
+                }
+                if (obstacles != null && adj != dest
+                        && obstacles.character(adjX, adjY) == '░') {
+                    continue;
+                }
+                int priority = nextCost + heuristic(adjX, adjY, destX, destY);
+                if (priority > maxLength) {
+                    continue; // outside the search radius
+                }
+                visited[adj] = stamp;
+                cost[adj] = nextCost;
+                parent[adj] = current;
+                heap.push(priority, adj);
+            }
+        }
+        if (!found) {
+            return -1;
+        }
+        return tracePath(parent, start, dest, plan);
+    }
+
+    /**
+     * Admissible and consistent estimate of the distance from (x, y) to (destX, destY).
+     */
+    int heuristic(int x, int y, int destX, int destY) {
+        int taxicab = Math.abs(x - destX) + Math.abs(y - destY);
+        if (_landmarks == null) {
+            return taxicab;
+        }
+        return Math.max(taxicab, _landmarks.lowerBound(index(x, y), index(destX, destY)));
+    }
+
+    /**
+     * Walks back from dest to start through parent, pushing the direction of each step onto the
+     * front of plan so that it reads from start to dest.
+     * @return the number of steps in the path.
+     */
+    int tracePath(int[] parent, int start, int dest, Deque<Direction> plan) {
+        int length = 0;
+        int current = dest;
+        while (current != start) {
+            int previous = parent[current];
+            plan.addFirst(directionBetween(previous, current));
+            current = previous;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the direction of the step from cell from to the adjacent cell to.
+     */
+    Direction directionBetween(int from, int to) {
+        if (to == from + 1) {
+            return NORTH;
+        } else if (to == from - 1) {
+            return SOUTH;
+        } else if (to == from + _height) {
+            return EAST;
+        } else if (to == from - _height) {
+            return WEST;
+        }
+        return NOPE;
+    }
+}
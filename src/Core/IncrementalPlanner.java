@@ -0,0 +1,311 @@
+package byow.Core;
+
+import byow.TileEngine.WorldModel;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static byow.Core.Direction.*;
+
+/**
+ * Keeps a crawler's path to the player between ticks and repairs it instead of searching again.
+ * The player moves at most one tile per tick, and the crawler moves one tile along its own path,
+ * so most ticks only need the two ends of the path touched up:
+ * - when the crawler steps onto the second cell of the path, the first cell is dropped;
+ * - when the player steps back onto the path, it is cut short there;
+ * - when the player steps next to the end of the path (or next to one of the last few cells), the
+ *   path is cut at that cell and extended to the player;
+ * - when another crawler stands on the path, only that stretch is searched again, around it.
+ * A full (bounded A*) search happens when none of these apply, or when the repaired path may no
+ * longer be a shortest one. To tell, the planner keeps a lower bound on the distance between the
+ * crawler and the player (counting walls, but not other crawlers). A full search sets it to the
+ * distance it finds, and every tick it goes down by one for each of them that moved, since one
+ * step can't shorten the distance by more than one. It can also be raised to the pathfinder's
+ * heuristic, and to the taxicab distance's parity (every path between two cells has the same
+ * parity). If the repaired path is no longer than the bound, it's a shortest path; otherwise it
+ * might not be, and the planner searches again. So apart from the detours around other crawlers,
+ * the kept path is always a shortest one, the same length as A_STAR's.
+ * Cells are stored as GridPathfinder indices, from the crawler's cell to the player's cell.
+ */
+public class IncrementalPlanner implements Serializable {
+    /* how many cells back from the end of the path to look for a shortcut to the player */
+    static final int LOOKBACK = 3;
+
+    private final GridPathfinder _grid;
+    private final int _maxLength;
+
+    /* the current path lives in _cells[_head.._tail) */
+    private int[] _cells = new int[16];
+    private int _head;
+    private int _tail;
+    /* spare array used while splicing a repaired stretch into the path */
+    private int[] _spare = new int[16];
+    /* lower bound on the distance (around walls only) between the ends of the path */
+    private int _bound;
+    /* directions of the last search, reused between searches */
+    private final ArrayDeque<Direction> _search = new ArrayDeque<>();
+
+    /**
+     * @param grid the walkability grid of the world.
+     * @param maxLength the longest path to look for, i.e. the crawler's search radius.
+     */
+    public IncrementalPlanner(GridPathfinder grid, int maxLength) {
+        _grid = grid;
+        _maxLength = maxLength;
+    }
+
+    /**
+     * Throws away the kept path, e.g. because the crawler stopped chasing.
+     */
+    public void reset() {
+        _head = 0;
+        _tail = 0;
+        _bound = 0;
+    }
+
+    /**
+     * Brings the kept path up to date with the crawler at (x, y) and the player at (goalX, goalY),
+     * and writes it into plan as a sequence of Directions. plan is cleared first.
+     * @param world the current world; cells holding other crawlers are avoided.
+     * @return the length of the path, or -1 if the player can't be reached within the radius.
+     */
+    public int update(int x, int y, int goalX, int goalY, WorldModel world,
+                      Deque<Direction> plan) {
+        int start = _grid.index(x, y);
+        int goal = _grid.index(goalX, goalY);
+        boolean valid = followStart(start) && followGoal(goal);
+        if (valid) {
+            // the ends moved at most one step each, so the distance went down by at most that
+            _bound = Math.max(_bound, _grid.heuristic(x, y, goalX, goalY));
+            if ((_bound - Math.abs(x - goalX) - Math.abs(y - goalY)) % 2 != 0) {
+                _bound++;
+            }
+            valid = length() <= _bound;
+        }
+        if (!valid || length() > _maxLength) {
+            replan(x, y, goalX, goalY);
+        }
+        if (!avoidObstacles(world)) {
+            replanAvoiding(x, y, goalX, goalY, world);
+        }
+        return writePlan(plan);
+    }
+
+    /**
+     * Returns the number of steps in the kept path, or -1 if there is no path.
+     */
+    private int length() {
+        return _tail - _head - 1;
+    }
+
+    /**
+     * Drops the first cell of the path if the crawler has moved onto the second one.
+     * @return false if the crawler is no longer at the start of the path.
+     */
+    private boolean followStart(int start) {
+        if (_tail - _head < 1) {
+            return false;
+        }
+        if (_cells[_head] == start) {
+            return true;
+        }
+        if (_tail - _head >= 2 && _cells[_head + 1] == start) {
+            _head++;
+            _bound--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the end of the path to the player's new cell, by cutting the path short if the player
+     * is on it, or by extending it from one of the last few cells if the player is next to them.
+     * @return false if neither is possible.
+     */
+    private boolean followGoal(int goal) {
+        if (_cells[_tail - 1] != goal) {
+            _bound--;
+        }
+        for (int i = _head; i < _tail; i++) {
+            if (_cells[i] == goal) {
+                _tail = i + 1;
+                return true;
+            }
+        }
+        for (int i = Math.max(_head, _tail - 1 - LOOKBACK); i < _tail; i++) {
+            if (_grid.directionBetween(_cells[i], goal) != NOPE) {
+                _tail = i + 1;
+                append(goal);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches again around any crawler standing on the path, splicing the detour into the path.
+     * @return false if a detour couldn't be found nearby.
+     */
+    private boolean avoidObstacles(WorldModel world) {
+        for (int i = _head + 1; i < _tail - 1; i++) {
+            if (!isBlocked(_cells[i], world)) {
+                continue;
+            }
+            int j = i + 1;
+            while (j < _tail - 1 && isBlocked(_cells[j], world)) {
+                j++;
+            }
+            int from = _cells[i - 1];
+            int to = _cells[j];
+            int fromX = from / _grid.height();
+            int fromY = from % _grid.height();
+            int toX = to / _grid.height();
+            int toY = to % _grid.height();
+            int detour = _grid.aStar(fromX, fromY, toX, toY, (j - i + 1) + 2 * LOOKBACK, world,
+                    _search);
+            if (detour < 0) {
+                return false;
+            }
+            splice(i, j, fromX, fromY);
+            i = _head;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces _cells[start..end) with the cells visited by _search from (fromX, fromY),
+     * excluding (fromX, fromY) itself and the last cell, which is _cells[end].
+     */
+    private void splice(int start, int end, int fromX, int fromY) {
+        int size = (start - _head) + (_search.size() - 1) + (_tail - end);
+        if (_spare.length < size) {
+            _spare = new int[Math.max(size, _spare.length * 2)];
+        }
+        int n = 0;
+        for (int i = _head; i < start; i++) {
+            _spare[n++] = _cells[i];
+        }
+        int x = fromX;
+        int y = fromY;
+        // walk the search by moving each step to the back, so no iterator is made
+        for (int k = _search.size(); k > 0; k--) {
+            Direction d = _search.pollFirst();
+            _search.addLast(d);
+            if (k == 1) {
+                break;
+            }
+            x += dx(d);
+            y += dy(d);
+            _spare[n++] = _grid.index(x, y);
+        }
+        for (int i = end; i < _tail; i++) {
+            _spare[n++] = _cells[i];
+        }
+        int[] old = _cells;
+        _cells = _spare;
+        _spare = old;
+        _head = 0;
+        _tail = n;
+    }
+
+    /**
+     * Throws away the kept path and runs a full bounded A* search around walls, which finds the
+     * distance between the crawler and the player exactly.
+     */
+    private void replan(int x, int y, int goalX, int goalY) {
+        reset();
+        int length = _grid.aStar(x, y, goalX, goalY, _maxLength, _search);
+        if (length < 0) {
+            return;
+        }
+        _bound = length;
+        keepSearch(x, y);
+    }
+
+    /**
+     * Throws away the kept path and runs a full bounded A* search around walls and other
+     * crawlers, for when the detours around crawlers on a shortest path can't be found nearby.
+     * The bound is kept, since it doesn't count crawlers.
+     */
+    private void replanAvoiding(int x, int y, int goalX, int goalY, WorldModel world) {
+        int bound = _bound;
+        reset();
+        if (_grid.aStar(x, y, goalX, goalY, _maxLength, world, _search) < 0) {
+            return;
+        }
+        _bound = bound;
+        keepSearch(x, y);
+    }
+
+    /**
+     * Makes the path the last search found from (x, y) the kept path.
+     */
+    private void keepSearch(int x, int y) {
+        append(_grid.index(x, y));
+        for (int k = _search.size(); k > 0; k--) {
+            Direction d = _search.pollFirst();
+            _search.addLast(d);
+            x += dx(d);
+            y += dy(d);
+            append(_grid.index(x, y));
+        }
+    }
+
+    /**
+     * Writes the kept path into plan as Directions.
+     * @return the length of the path, or -1 if there is no path.
+     */
+    private int writePlan(Deque<Direction> plan) {
+        plan.clear();
+        for (int i = _head + 1; i < _tail; i++) {
+            plan.addLast(_grid.directionBetween(_cells[i - 1], _cells[i]));
+        }
+        return length();
+    }
+
+    /**
+     * Adds cell to the end of the path, compacting or growing the array if it's full.
+     */
+    private void append(int cell) {
+        if (_tail == _cells.length) {
+            int size = _tail - _head;
+            if (size * 2 > _cells.length) {
+                int[] bigger = new int[_cells.length * 2];
+                System.arraycopy(_cells, _head, bigger, 0, size);
+                _cells = bigger;
+                _spare = new int[bigger.length];
+            } else {
+                System.arraycopy(_cells, _head, _cells, 0, size);
+            }
+            _head = 0;
+            _tail = size;
+        }
+        _cells[_tail++] = cell;
+    }
+
+    /**
+     * Returns true iff another crawler is standing on cell.
+     */
+    private boolean isBlocked(int cell, WorldModel world) {
+        return world.character(cell / _grid.height(), cell % _grid.height()) == '░';
+    }
+
+    private static int dx(Direction d) {
+        if (d == EAST) {
+            return 1;
+        } else if (d == WEST) {
+            return -1;
+        }
+        return 0;
+    }
+
+    private static int dy(Direction d) {
+        if (d == NORTH) {
+            return 1;
+        } else if (d == SOUTH) {
+            return -1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,158 @@
+package byow.Core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Everything that has been done to a generated Game, in order: every valid move, every time the
+ * lights were toggled and every change of chase mode. A game is completely decided by its seed,
+ * difficulty and size plus these events, so the log is enough to save it; loading replays the
+ * events through tickTime without drawing anything.
+ *
+ * Replaying a long session from the start would take a while, so every keyframeInterval events
+ * the log takes a keyframe: a GameSnapshot of the game at that point. Loading starts from the
+ * keyframe and never replays more than keyframeInterval events. Only the latest keyframe is
+ * kept, and the events before it are dropped, since loading never needs them; this keeps the log
+ * (and saves of it) from growing as the game goes on. Keyframes are only encoded when the log is
+ * saved, so taking one is as quick as taking a snapshot.
+ */
+public class InputLog implements Serializable {
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 1000;
+
+    /* the events other than moves, which are logged as their lower case key */
+    static final byte LIGHTS = 'l';
+    /* a change to chase mode k is logged as CHASE_MODE + k */
+    static final byte CHASE_MODE = '0';
+
+    final long _seed;
+    final Difficulty _difficulty;
+    final int _width;
+    final int _height;
+    final int _keyframeInterval;
+
+    /* the events since the keyframe */
+    private byte[] _events = new byte[64];
+    private int _size;
+    /* the game after the first _keyframeAt events, or null if there's no keyframe yet */
+    private GameSnapshot _keyframe;
+    private int _keyframeAt;
+
+    /**
+     * Makes an empty log for the game generated from these parameters.
+     * @param keyframeInterval how many events there are between keyframes.
+     */
+    public InputLog(long seed, Difficulty difficulty, int width, int height,
+                    int keyframeInterval) {
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Keyframe interval must be positive.");
+        }
+        _seed = seed;
+        _difficulty = difficulty;
+        _width = width;
+        _height = height;
+        _keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Returns the number of events in the log, counting the ones before the keyframe.
+     */
+    public int size() {
+        return _keyframeAt + _size;
+    }
+
+    /**
+     * Returns the number of events since the keyframe (or since the start, if there isn't one).
+     */
+    int eventsSinceKeyframe() {
+        return _size;
+    }
+
+    /**
+     * Returns event number k since the keyframe.
+     */
+    byte event(int k) {
+        return _events[k];
+    }
+
+    /**
+     * Adds an event to the end of the log.
+     */
+    void record(byte event) {
+        if (_size == _events.length) {
+            _events = Arrays.copyOf(_events, _size * 2);
+        }
+        _events[_size++] = event;
+    }
+
+    /**
+     * Returns true iff the events so far end exactly where a keyframe should go.
+     */
+    boolean needsKeyframe() {
+        return size() % _keyframeInterval == 0;
+    }
+
+    /**
+     * Makes snapshot, a snapshot of the game after all the events so far, the keyframe, and
+     * drops the events before it.
+     */
+    void setKeyframe(GameSnapshot snapshot) {
+        setKeyframe(size(), snapshot);
+    }
+
+    /**
+     * Makes snapshot, a snapshot of the game after the first at events, the keyframe, and drops
+     * every event, e.g. when a log is loaded. The events after the keyframe are recorded after.
+     */
+    void setKeyframe(int at, GameSnapshot snapshot) {
+        _keyframe = snapshot;
+        _keyframeAt = at;
+        _size = 0;
+    }
+
+    /**
+     * Returns the keyframe, or null if there isn't one yet.
+     */
+    GameSnapshot keyframe() {
+        return _keyframe;
+    }
+
+    /**
+     * Returns the number of events before the keyframe.
+     */
+    int keyframeAt() {
+        return _keyframeAt;
+    }
+
+    /**
+     * Returns a copy of the log as it is now, which the game's later events don't change, e.g.
+     * for saving it on another thread. The keyframe isn't copied, since snapshots never change.
+     */
+    InputLog copy() {
+        InputLog copy = new InputLog(_seed, _difficulty, _width, _height, _keyframeInterval);
+        copy._events = Arrays.copyOf(_events, Math.max(_size, 1));
+        copy._size = _size;
+        copy._keyframe = _keyframe;
+        copy._keyframeAt = _keyframeAt;
+        return copy;
+    }
+
+    /**
+     * Returns the event that means move was made.
+     */
+    static byte moveEvent(char move) {
+        return (byte) Character.toLowerCase(move);
+    }
+
+    /**
+     * Does event to game, the same way it was done when it was logged.
+     */
+    static void apply(Game game, byte event) {
+        if (event == LIGHTS) {
+            game.toggleDark();
+        } else if (event >= CHASE_MODE && event < CHASE_MODE + ChaseMode.values().length) {
+            game.setChaseMode(ChaseMode.values()[event - CHASE_MODE]);
+        } else {
+            game.tickTime((char) event);
+        }
+    }
+}
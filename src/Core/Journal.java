@@ -0,0 +1,353 @@
+package byow.Core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of a game, so that a crash only loses the last moment of a session
+ * instead of everything since the last ":q".
+ * The journal file starts with a snapshot of the game (see SaveCodec) and is followed by the
+ * events done to the game since then (see InputLog), which is all it takes to rebuild the game,
+ * since replaying the same events on the same state always gives the same result.
+ *
+ * Logging an event only puts a byte in a buffer. A background thread writes the buffered events
+ * to the end of the file as one frame and forces it to disk, either every SYNC_INTERVAL_MS or
+ * once BATCH_SIZE events are waiting, so many ticks share one fsync (group commit). Every frame
+ * has a CRC, so a frame that was only partly written when the game crashed is recognised and
+ * left out when recovering; everything before it is kept.
+ *
+ * To stop the journal growing forever, every COMPACT_INTERVAL events the game is snapshotted
+ * again and the background thread replaces the file with a new one starting from that snapshot.
+ * The new file is written next to the old one and moved over it, so there's always a whole
+ * journal on disk. The game thread only takes a GameSnapshot; encoding it and writing the file
+ * are left to the background thread, which writes the journal's first file the same way.
+ *
+ * File format, all big-endian:
+ *   int magic, byte version, int snapshot length, int snapshot CRC, the snapshot,
+ *   then frames of: int payload length, int payload CRC, payload = int number of events
+ *   journalled before the frame's first one, then the events, one byte each.
+ */
+public class Journal {
+    /* "LBYJ" */
+    private static final int MAGIC = 0x4C42594A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    /* how long events can wait before they're forced to disk */
+    static final long SYNC_INTERVAL_MS = 100;
+    /* how many waiting events wake the background thread early */
+    static final int BATCH_SIZE = 256;
+    /* how many events are journalled after a snapshot before taking a new one */
+    static final int COMPACT_INTERVAL = 10000;
+
+    private final Path _path;
+    private final Game _game;
+    /* only used by the background thread; null until it has written the first file */
+    private FileChannel _channel;
+
+    /* The fields below are shared with the background thread; use them inside synchronized. */
+    /* events not handed to the background thread yet */
+    private byte[] _pending = new byte[BATCH_SIZE * 2];
+    private int _pendingSize;
+    /* the number of events journalled (since the file's snapshot) before _pending[0] */
+    private int _pendingStart;
+    /* a snapshot the file should be replaced with, or null */
+    private GameSnapshot _compactTo;
+    private boolean _closed;
+    /* true while the background thread is writing something it took from the fields above */
+    private boolean _writingNow;
+    /* the number of events after the snapshot that are safely on disk */
+    private int _durable;
+
+    /* only used by the game thread */
+    private int _sinceSnapshot;
+
+    private Thread _thread;
+    /* the background thread's buffer; only it uses this */
+    private byte[] _writing = new byte[BATCH_SIZE * 2];
+
+    /**
+     * Starts journalling game to file, replacing any journal already there. From now on, every
+     * event done to the game is journalled until close is called.
+     * The file is written by the background thread, so it may not be there yet when this
+     * returns; call sync to wait for it.
+     * The game must be one SaveCodec can encode.
+     */
+    public static Journal open(File file, Game game) {
+        if (!SaveCodec.canEncode(game)) {
+            throw new IllegalArgumentException("Game wasn't made with Game.generate.");
+        }
+        Journal journal = new Journal(file.toPath(), game);
+        journal._compactTo = new GameSnapshot(game);
+        journal._thread = new Thread(journal::writeFrames, "journal");
+        journal._thread.setDaemon(true);
+        journal._thread.start();
+        game._journal = journal;
+        return journal;
+    }
+
+    private Journal(Path path, Game game) {
+        _path = path;
+        _game = game;
+    }
+
+    /**
+     * Rebuilds the game in a journal, up to the last event that was safely written.
+     * Throws IllegalArgumentException if the file isn't a journal or its snapshot is corrupt.
+     * @return the game, which isn't being journalled; open a new journal to carry on.
+     */
+    public static Game recover(File file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a journal.");
+        }
+        int version = in.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown journal version " + version + ".");
+        }
+        int length = in.getInt();
+        int crc = in.getInt();
+        if (length < 0 || length > in.remaining() || crc(bytes, in.position(), length) != crc) {
+            throw new IllegalArgumentException("Journal snapshot is corrupt.");
+        }
+        Game game = SaveCodec.decode(Arrays.copyOfRange(bytes, in.position(),
+                in.position() + length));
+        in.position(in.position() + length);
+
+        // replay whole frames, stopping at the first one that's torn or out of order
+        int events = 0;
+        while (in.remaining() >= FRAME_HEADER_SIZE) {
+            int size = in.getInt();
+            int frameCrc = in.getInt();
+            if (size < 4 || size > in.remaining()
+                    || crc(bytes, in.position(), size) != frameCrc) {
+                break;
+            }
+            int first = in.getInt();
+            if (first != events) {
+                break;
+            }
+            for (int k = 4; k < size; k++) {
+                InputLog.apply(game, in.get());
+                events++;
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Journals an event that was just done to the game. This only copies a byte (apart from
+     * every COMPACT_INTERVAL events, when the game is snapshotted, which is still quick).
+     */
+    void append(byte event) {
+        boolean compact = ++_sinceSnapshot >= COMPACT_INTERVAL;
+        // taken outside the lock; the game only changes on this thread
+        GameSnapshot snapshot = compact ? new GameSnapshot(_game) : null;
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            if (compact) {
+                // every event so far is in the snapshot
+                _compactTo = snapshot;
+                _pendingStart = 0;
+                _pendingSize = 0;
+                _sinceSnapshot = 0;
+                notifyAll();
+                return;
+            }
+            if (_pendingSize == _pending.length) {
+                _pending = Arrays.copyOf(_pending, _pendingSize * 2);
+            }
+            _pending[_pendingSize++] = event;
+            // the first event starts the wait for a batch, and a full batch ends it
+            if (_pendingSize == 1 || _pendingSize == BATCH_SIZE) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events since the journal's last snapshot that are safely on disk.
+     */
+    public synchronized int durableEvents() {
+        return _durable;
+    }
+
+    /**
+     * Waits until every event journalled so far is safely on disk.
+     */
+    public synchronized void sync() {
+        boolean interrupted = false;
+        while (!_closed && (_pendingSize > 0 || _compactTo != null || _writingNow)) {
+            notifyAll();
+            try {
+                wait(SYNC_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything journalled so far to disk and stops journalling. The file is kept; delete
+     * it if the game was saved some other way.
+     */
+    public void close() {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                _thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (_game._journal == this) {
+            _game._journal = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the background thread. Waits for events (or a snapshot) and writes them, until the
+     * journal is closed.
+     */
+    private void writeFrames() {
+        try {
+            while (true) {
+                GameSnapshot snapshot;
+                int start;
+                int size;
+                boolean closed;
+                synchronized (this) {
+                    while (!_closed && _compactTo == null && _pendingSize == 0) {
+                        wait();
+                    }
+                    // give more events a chance to join the batch
+                    if (!_closed && _compactTo == null && _pendingSize < BATCH_SIZE) {
+                        wait(SYNC_INTERVAL_MS);
+                    }
+                    // swap buffers, so the game thread can carry on while this one writes
+                    snapshot = _compactTo;
+                    _compactTo = null;
+                    start = _pendingStart;
+                    size = _pendingSize;
+                    byte[] events = _pending;
+                    _pending = _writing;
+                    _writing = events;
+                    _pendingStart += size;
+                    _pendingSize = 0;
+                    closed = _closed;
+                    _writingNow = true;
+                }
+                if (snapshot != null) {
+                    FileChannel old = _channel;
+                    _channel = writeNewFile(SaveCodec.encode(snapshot), _writing, start, size);
+                    if (old != null) {
+                        old.close();
+                    }
+                } else if (size > 0) {
+                    writeFrame(_channel, _writing, start, size);
+                    _channel.force(false);
+                }
+                synchronized (this) {
+                    _durable = start + size;
+                    _writingNow = false;
+                    notifyAll();
+                }
+                if (closed) {
+                    _channel.close();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // nothing more can be journalled, but the game can still carry on (and be saved)
+            System.err.println("Journal stopped: " + e);
+            synchronized (this) {
+                _closed = true;
+                _writingNow = false;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a journal starting from snapshot, followed by a frame of events if there are any,
+     * to a temporary file, forces it to disk and moves it over the journal.
+     * @return a channel for appending to the new journal.
+     */
+    private FileChannel writeNewFile(byte[] snapshot, byte[] events, int start, int size)
+            throws IOException {
+        Path temp = _path.resolveSibling(_path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).putInt(snapshot.length)
+                    .putInt(crc(snapshot, 0, snapshot.length)).flip();
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(snapshot));
+            if (size > 0) {
+                writeFrame(channel, events, start, size);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(_path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends a frame of the first size events to channel.
+     * @param start the number of events journalled before these ones.
+     */
+    private static void writeFrame(FileChannel channel, byte[] events, int start, int size)
+            throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + 4 + size);
+        frame.putInt(4 + size).putInt(0).putInt(start).put(events, 0, size);
+        frame.putInt(4, crc(frame.array(), FRAME_HEADER_SIZE, 4 + size));
+        frame.flip();
+        writeFully(channel, frame);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
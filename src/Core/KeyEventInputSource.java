@@ -0,0 +1,70 @@
+package byow.Core;
+
+import java.awt.KeyboardFocusManager;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Keys typed into the game's window, as an InputSource that waits for them.
+ * Typed keys are pushed onto a queue by AWT as they happen (through a KeyEventDispatcher, which
+ * sees them before StdDraw's own listener does), and getNextKey blocks on the queue until there is
+ * one. So waiting for input doesn't use any CPU, and a key is handed over as soon as it's typed,
+ * unlike polling StdDraw.hasNextKeyTyped in a loop.
+ *
+ * There is only one queue, since there is only one keyboard; get it with instance(). Once it's
+ * made, StdDraw.hasNextKeyTyped never sees a typed key again.
+ */
+public class KeyEventInputSource implements InputSource {
+    private static KeyEventInputSource _instance;
+
+    private final LinkedBlockingQueue<Character> _keys = new LinkedBlockingQueue<>();
+
+    private KeyEventInputSource() {
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(e -> {
+            if (e.getID() != KeyEvent.KEY_TYPED || e.getKeyChar() == KeyEvent.CHAR_UNDEFINED) {
+                return false;
+            }
+            _keys.offer(e.getKeyChar());
+            // nobody else gets the key, so it isn't also queued up in StdDraw
+            return true;
+        });
+    }
+
+    /**
+     * Returns the keyboard's queue, starting to listen for keys the first time it's called.
+     */
+    public static synchronized KeyEventInputSource instance() {
+        if (_instance == null) {
+            _instance = new KeyEventInputSource();
+        }
+        return _instance;
+    }
+
+    /**
+     * Waits until a key is typed, and returns it. Keys typed since the last call are returned
+     * first, in the order they were typed.
+     */
+    public char getNextKey() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return _keys.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * There could always be another key.
+     */
+    public boolean possibleNextInput() {
+        return true;
+    }
+}
@@ -12,15 +12,12 @@ public class KeyboardInputSource implements InputSource {
     }
 
     public char getNextKey() {
-        while (true) {
-            if (StdDraw.hasNextKeyTyped()) {
-                char c = Character.toUpperCase(StdDraw.nextKeyTyped());
-                if (PRINT_TYPED_KEYS) {
-                    System.out.print(c);
-                }
-                return c;
-            }
+        // waits for the key without spinning
+        char c = Character.toUpperCase(KeyEventInputSource.instance().getNextKey());
+        if (PRINT_TYPED_KEYS) {
+            System.out.print(c);
         }
+        return c;
     }
 
     public boolean possibleNextInput() {
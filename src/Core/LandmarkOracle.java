@@ -0,0 +1,187 @@
+package byow.Core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Landmark (ALT) distance oracle for a single world.
+ * Walls never change during a game, so after generation we pick a handful of landmark tiles spread
+ * out across the world and store the walking distance from each landmark to every tile. By the
+ * triangle inequality, |d(L, a) - d(L, b)| <= d(a, b) for every landmark L, which gives a lower
+ * bound on the distance between any two tiles in O(landmarks) time. GridPathfinder uses it as an
+ * admissible A* heuristic, which is usually much tighter than the taxicab distance.
+ *
+ * The tables are kept in a single char[] of landmarks * tiles entries. Distances are clamped to
+ * FAR, which keeps the lower bound admissible, and UNREACHABLE marks tiles a landmark can't reach.
+ * The landmarks are picked the first time a bound is asked for. Only the landmark tiles are saved;
+ * the tables are recomputed the first time they're needed.
+ */
+public class LandmarkOracle implements Serializable {
+    static final int DEFAULT_LANDMARKS = 8;
+    private static final char UNREACHABLE = Character.MAX_VALUE;
+    private static final char FAR = Character.MAX_VALUE - 1;
+
+    private final GridPathfinder _grid;
+    /* how many landmarks to pick */
+    private final int _count;
+    /* cell index of each landmark; null until they're picked */
+    private int[] _landmarks;
+    /* distance from landmark l to cell i is _distances[l * size + i] */
+    private transient char[] _distances;
+
+    /**
+     * Makes an oracle that will pick up to count landmarks. Nothing is picked or searched until
+     * the oracle is first asked for a bound, so games that never use it don't pay for it.
+     */
+    public LandmarkOracle(GridPathfinder grid, int count) {
+        _grid = grid;
+        _count = count;
+    }
+
+    /**
+     * Picks the landmarks with farthest-point sampling: each landmark is the walkable tile
+     * farthest from the landmarks picked before it, starting from the tile farthest from the first
+     * walkable tile.
+     */
+    private void pickLandmarks() {
+        GridPathfinder grid = _grid;
+        int count = _count;
+        int size = grid.width() * grid.height();
+        int first = -1;
+        for (int i = 0; i < size && first < 0; i++) {
+            if (grid.isWalkable(i / grid.height(), i % grid.height())) {
+                first = i;
+            }
+        }
+        if (first < 0) {
+            _landmarks = new int[0];
+            _distances = new char[0];
+            return;
+        }
+
+        int[] landmarks = new int[count];
+        char[] distances = new char[count * size];
+        int[] nearest = new int[size]; // distance to the closest landmark so far
+        int[] queue = new int[size];
+        bfs(first, distances, 0, queue);
+        int next = farthest(distances, 0, null);
+        int picked = 0;
+        Arrays.fill(nearest, Integer.MAX_VALUE);
+        while (picked < count && next >= 0) {
+            landmarks[picked] = next;
+            bfs(next, distances, picked * size, queue);
+            for (int i = 0; i < size; i++) {
+                char d = distances[picked * size + i];
+                if (d != UNREACHABLE && d < nearest[i]) {
+                    nearest[i] = d;
+                }
+            }
+            picked++;
+            next = farthest(null, 0, nearest);
+        }
+        _landmarks = Arrays.copyOf(landmarks, picked);
+        _distances = Arrays.copyOf(distances, picked * size);
+    }
+
+    /**
+     * Returns the number of landmarks.
+     */
+    public int landmarkCount() {
+        ensureTables();
+        return _landmarks.length;
+    }
+
+    /**
+     * Returns a lower bound on the walking distance between cells a and b.
+     */
+    public int lowerBound(int a, int b) {
+        int size = ensureTables();
+        int best = 0;
+        for (int l = 0; l < _landmarks.length; l++) {
+            char da = _distances[l * size + a];
+            char db = _distances[l * size + b];
+            if (da == UNREACHABLE || db == UNREACHABLE) {
+                continue;
+            }
+            int bound = Math.abs(da - db);
+            if (bound > best) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Picks the landmarks if they haven't been picked yet, and recomputes the distance tables if
+     * they were lost when the game was saved.
+     * @return the number of cells in the world.
+     */
+    private int ensureTables() {
+        int size = _grid.width() * _grid.height();
+        if (_landmarks == null) {
+            pickLandmarks();
+        } else if (_distances == null) {
+            _distances = new char[_landmarks.length * size];
+            int[] queue = new int[size];
+            for (int l = 0; l < _landmarks.length; l++) {
+                bfs(_landmarks[l], _distances, l * size, queue);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Fills distances[offset .. offset + size) with the walking distance from source to every cell.
+     */
+    private void bfs(int source, char[] distances, int offset, int[] queue) {
+        int size = _grid.width() * _grid.height();
+        int height = _grid.height();
+        Arrays.fill(distances, offset, offset + size, UNREACHABLE);
+        int head = 0;
+        int tail = 0;
+        distances[offset + source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int current = queue[head++];
+            int x = current / height;
+            int y = current % height;
+            int d = distances[offset + current];
+            char next = (char) Math.min(d + 1, FAR);
+            for (int k = 0; k < 4; k++) {
+                int adjX = x + (k == 2 ? 1 : k == 3 ? -1 : 0);
+                int adjY = y + (k == 0 ? 1 : k == 1 ? -1 : 0);
+                if (!_grid.isWalkable(adjX, adjY)) {
+                    continue;
+                }
+                int adj = _grid.index(adjX, adjY);
+                if (distances[offset + adj] == UNREACHABLE) {
+                    distances[offset + adj] = next;
+                    queue[tail++] = adj;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the reachable cell with the largest distance, read either from distances[offset..]
+     * or, if distances is null, from nearest. Returns -1 if every cell is a landmark already.
+     */
+    private int farthest(char[] distances, int offset, int[] nearest) {
+        int size = _grid.width() * _grid.height();
+        int best = -1;
+        int bestDistance = 0;
+        for (int i = 0; i < size; i++) {
+            int d;
+            if (distances != null) {
+                d = distances[offset + i] == UNREACHABLE ? -1 : distances[offset + i];
+            } else {
+                d = nearest[i] == Integer.MAX_VALUE ? -1 : nearest[i];
+            }
+            if (d > bestDistance) {
+                best = i;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+}
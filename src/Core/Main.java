@@ -1,26 +1,118 @@
 package byow.Core;
 
+import byow.TileEngine.TETile;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
 /**
  * This is the main entry point for the program. This class simply parses
  * the command line inputs, and lets the byow.Core.Engine class take over
- * in either keyboard or input string mode.
+ * in either keyboard or input string mode. The input string can also be
+ * streamed from a file (-f path) or from stdin (-i), for inputs too big
+ * to pass as an argument. Input strings are played in a GameSession,
+ * which never opens a window.
+ * Keyboard games can be started with "-c mode" first (e.g. -c a_star
+ * -w 1000x1000) to pick how crawlers chase the player (see ChaseMode);
+ * -c can't be used with -s, -f or -i.
  */
 public class Main {
-    public static void main(String[] args) {
+    /* the biggest world -w can make; chunked worlds are rounded up to whole chunks */
+    private static final int MAX_WORLD_SIZE = Integer.MAX_VALUE / ChunkedWorld.CHUNK_SIZE
+            * ChunkedWorld.CHUNK_SIZE;
+
+    public static void main(String[] args) throws IOException {
+        ChaseMode chaseMode = ChaseMode.FLOW_FIELD;
+        if (args.length >= 2 && args[0].equals("-c")) {
+            try {
+                chaseMode = ChaseMode.valueOf(args[1].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown chase mode " + args[1] + "; use one of "
+                        + Arrays.toString(ChaseMode.values()) + ".");
+                System.exit(0);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+            if (args.length > 0 && !args[0].equals("-w")) {
+                // input strings are replayed as they are, so they can't pick a chase mode
+                System.out.println("-c can only be used for keyboard games, with -w or alone.");
+                System.exit(0);
+            }
+        }
         if (args.length > 2) {
             System.out.println("Can only have two arguments - the flag and input string");
             System.exit(0);
         } else if (args.length == 2 && args[0].equals("-s")) {
-            Engine engine = new Engine();
-            engine.interactWithInputString(args[1]);
-            System.out.println(engine.toString());
+            runHeadless(new StringInputDevice(args[1]));
+            System.exit(0);
+        } else if (args.length == 2 && args[0].equals("-f")) {
+            try (FileChannel channel = FileChannel.open(Paths.get(args[1]))) {
+                runHeadless(new ChannelInputSource(channel));
+            }
+            System.exit(0);
+        } else if (args.length == 1 && args[0].equals("-i")) {
+            // ReaderInputSource does its own buffering
+            runHeadless(new ReaderInputSource(new InputStreamReader(System.in)));
+            System.exit(0);
+        } else if (args.length == 2 && args[0].equals("-w")) {
+            // e.g. -w 1000x1000 plays in a world of that size, seen through a scrolling camera
+            // and generated a chunk at a time as the player explores it
+            int[] size = parseSize(args[1]);
+            if (size == null) {
+                System.out.println("The world size must be WIDTHxHEIGHT (e.g. -w 1000x1000), "
+                        + "at least " + Engine.WIDTH + "x" + Engine.HEIGHT + " and at most "
+                        + MAX_WORLD_SIZE + " each way.");
+                System.exit(0);
+            }
+            Engine engine = new Engine(size[0], size[1]);
+            engine.setChaseMode(chaseMode);
+            engine.interactWithKeyboard();
             System.exit(0);
         } else if (args.length == 2 && args[0].equals("-p")) {
             System.out.println("-p flag not supported.");
         } else { // Do not change yet
             Engine engine = new Engine();
+            engine.setChaseMode(chaseMode);
             engine.interactWithKeyboard();
             System.exit(0);
         }
     }
+
+    /**
+     * Parses a world size like "1000x1000" into its width and height. Returns null unless it's
+     * two numbers, at least as big as the window (smaller worlds can be too small to hold a
+     * player) and no bigger than MAX_WORLD_SIZE.
+     */
+    private static int[] parseSize(String size) {
+        String[] parts = size.split("x");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            int width = Integer.parseInt(parts[0]);
+            int height = Integer.parseInt(parts[1]);
+            if (width < Engine.WIDTH || height < Engine.HEIGHT
+                    || width > MAX_WORLD_SIZE || height > MAX_WORLD_SIZE) {
+                return null;
+            }
+            return new int[] {width, height};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Plays the keys from inputSource in a GameSession, without opening a window, and prints
+     * the world at the end.
+     */
+    private static void runHeadless(InputSource inputSource) {
+        // nothing is drawn, so AWT doesn't need a display either
+        System.setProperty("java.awt.headless", "true");
+        TETile[][] world = new GameSession(Engine.SAVE_FILE).play(inputSource);
+        if (world != null) {
+            System.out.println(TETile.toString(world));
+        }
+    }
 }
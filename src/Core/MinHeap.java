@@ -0,0 +1,88 @@
+package byow.Core;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of (key, value) pairs of non-negative ints, for the priority queues of the
+ * pathfinders (GridPathfinder's A*, NavGraph's and RoomNavigator's Dijkstra's), where the key is
+ * a cost and the value a cell or node.
+ * Each pair is packed into one long as key << 32 | value, so the heap is a single array and
+ * comparing two entries is one comparison. The array only ever grows, so a heap that's reused
+ * between searches stops allocating once it's big enough.
+ * A pair can be pushed again with a lower key instead of being decreased; the old entry is
+ * still popped later, so searches should skip entries whose key is out of date.
+ */
+class MinHeap {
+    private long[] _entries = new long[16];
+    private int _size;
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Removes every entry, keeping the array.
+     */
+    void clear() {
+        _size = 0;
+    }
+
+    /**
+     * Adds value with the given key.
+     */
+    void push(int key, int value) {
+        if (_size == _entries.length) {
+            _entries = Arrays.copyOf(_entries, _size * 2);
+        }
+        long entry = ((long) key << 32) | value;
+        int i = _size;
+        while (i > 0) {
+            int up = (i - 1) / 2;
+            if (_entries[up] <= entry) {
+                break;
+            }
+            _entries[i] = _entries[up];
+            i = up;
+        }
+        _entries[i] = entry;
+        _size++;
+    }
+
+    /**
+     * Returns the smallest key in the heap. The heap must not be empty.
+     */
+    int minKey() {
+        return (int) (_entries[0] >>> 32);
+    }
+
+    /**
+     * Returns the value with the smallest key. The heap must not be empty.
+     */
+    int minValue() {
+        return (int) _entries[0];
+    }
+
+    /**
+     * Removes the entry with the smallest key. The heap must not be empty.
+     */
+    void removeMin() {
+        _size--;
+        long entry = _entries[_size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= _size) {
+                break;
+            }
+            if (child + 1 < _size && _entries[child + 1] < _entries[child]) {
+                child++;
+            }
+            if (entry <= _entries[child]) {
+                break;
+            }
+            _entries[i] = _entries[child];
+            i = child;
+        }
+        _entries[i] = entry;
+    }
+}
@@ -0,0 +1,360 @@
+package byow.Core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Navigation graph of a world with its corridors compressed into single edges.
+ * Most hallways carved by the WorldGenerator are one tile wide, so most of their tiles have exactly
+ * two walkable neighbours. Every walkable tile that doesn't (room tiles, junctions, dead ends)
+ * becomes a node, and every run of two-neighbour tiles between two nodes becomes one edge, weighted
+ * by its length. How much that saves depends on how much of the world is corridor: an 80x48 world
+ * has about half as many nodes as walkable tiles, but big worlds are mostly room floor, so their
+ * graphs are barely smaller than the tiles.
+ *
+ * Each edge runs from its _edgeFrom node to its _edgeTo node. A position along an edge counts the
+ * steps from _edgeFrom, so position 0 is the _edgeFrom node, position _edgeLength is the _edgeTo
+ * node, and the tiles in between are the edge's corridor tiles.
+ */
+public class NavGraph implements Serializable {
+    private final GridPathfinder _grid;
+
+    /* cell of each node, and node of each cell (or -1) */
+    private int[] _nodeCell;
+    private int[] _nodeOf;
+
+    /* edges, and their corridor tiles: the tiles of edge e are
+    _chainCells[_edgeCellStart[e] .. _edgeCellStart[e] + _edgeLength[e] - 1) */
+    private int[] _edgeFrom;
+    private int[] _edgeTo;
+    private int[] _edgeLength;
+    private int[] _edgeCellStart;
+    private int[] _chainCells;
+    /* edge of each corridor tile (or -1), and its position along that edge */
+    private int[] _chainOf;
+    private int[] _chainPos;
+
+    /* the edges touching node n are _adj[_adjStart[n].._adjStart[n+1]) */
+    private int[] _adjStart;
+    private int[] _adj;
+
+    /* scratch space for searches, made the first time it's needed */
+    private transient int[] _cost;
+    private transient int[] _parent;
+    private transient int[] _parentEdge;
+    private transient int[] _parentFrom;
+    private transient int[] _parentTo;
+    private transient int[] _route;
+    private transient MinHeap _heap;
+
+    /**
+     * Makes the navigation graph of a world. The graph itself is only built the first time it's
+     * used, so games whose crawlers never search it don't pay for it.
+     * @param grid the walkability grid of the world.
+     */
+    public NavGraph(GridPathfinder grid) {
+        _grid = grid;
+    }
+
+    /**
+     * Builds the graph, unless it's been built already.
+     */
+    private void ensureBuilt() {
+        if (_nodeOf != null) {
+            return;
+        }
+        GridPathfinder grid = _grid;
+        int width = grid.width();
+        int height = grid.height();
+        int size = width * height;
+
+        _nodeOf = new int[size];
+        Arrays.fill(_nodeOf, -1);
+        int[] nodeCell = new int[size];
+        int nodes = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (grid.isWalkable(x, y) && degree(x, y) != 2) {
+                    _nodeOf[grid.index(x, y)] = nodes;
+                    nodeCell[nodes++] = grid.index(x, y);
+                }
+            }
+        }
+        _nodeCell = Arrays.copyOf(nodeCell, nodes);
+
+        _chainOf = new int[size];
+        Arrays.fill(_chainOf, -1);
+        _chainPos = new int[size];
+        int[] chainCells = new int[size];
+        int[] from = new int[2 * size];
+        int[] to = new int[2 * size];
+        int[] length = new int[2 * size];
+        int[] cellStart = new int[2 * size];
+        int edges = 0;
+        int chained = 0;
+        for (int n = 0; n < nodes; n++) {
+            int cell = _nodeCell[n];
+            for (int d = 0; d < 4; d++) {
+                int next = neighbour(cell, d);
+                if (next < 0) {
+                    continue;
+                }
+                if (_nodeOf[next] >= 0) {
+                    // two nodes next to each other; only add the edge once.
+                    if (n < _nodeOf[next]) {
+                        from[edges] = n;
+                        to[edges] = _nodeOf[next];
+                        length[edges] = 1;
+                        cellStart[edges] = chained;
+                        edges++;
+                    }
+                    continue;
+                }
+                if (_chainOf[next] >= 0) {
+                    continue; // already walked from the node at the other end
+                }
+                // walk down the corridor until the next node.
+                cellStart[edges] = chained;
+                int previous = cell;
+                int current = next;
+                int steps = 0;
+                while (_nodeOf[current] < 0) {
+                    steps++;
+                    _chainOf[current] = edges;
+                    _chainPos[current] = steps;
+                    chainCells[chained++] = current;
+                    int ahead = -1;
+                    for (int k = 0; k < 4; k++) {
+                        int candidate = neighbour(current, k);
+                        if (candidate >= 0 && candidate != previous) {
+                            ahead = candidate;
+                            break;
+                        }
+                    }
+                    previous = current;
+                    current = ahead;
+                }
+                from[edges] = n;
+                to[edges] = _nodeOf[current];
+                length[edges] = steps + 1;
+                edges++;
+            }
+        }
+        _edgeFrom = Arrays.copyOf(from, edges);
+        _edgeTo = Arrays.copyOf(to, edges);
+        _edgeLength = Arrays.copyOf(length, edges);
+        _edgeCellStart = Arrays.copyOf(cellStart, edges);
+        _chainCells = Arrays.copyOf(chainCells, chained);
+
+        // adjacency lists: entry 2e means edge e is walked forwards, 2e + 1 backwards.
+        _adjStart = new int[nodes + 1];
+        for (int e = 0; e < edges; e++) {
+            _adjStart[_edgeFrom[e] + 1]++;
+            _adjStart[_edgeTo[e] + 1]++;
+        }
+        for (int n = 0; n < nodes; n++) {
+            _adjStart[n + 1] += _adjStart[n];
+        }
+        _adj = new int[_adjStart[nodes]];
+        int[] fill = Arrays.copyOf(_adjStart, nodes);
+        for (int e = 0; e < edges; e++) {
+            _adj[fill[_edgeFrom[e]]++] = 2 * e;
+            _adj[fill[_edgeTo[e]]++] = 2 * e + 1;
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the graph.
+     */
+    public int nodeCount() {
+        ensureBuilt();
+        return _nodeCell.length;
+    }
+
+    /**
+     * Returns the number of edges in the graph.
+     */
+    public int edgeCount() {
+        ensureBuilt();
+        return _edgeFrom.length;
+    }
+
+    /**
+     * Finds a shortest path from (startX, startY) to (destX, destY) with Dijkstra's over the
+     * graph, and writes it into plan as a sequence of Directions. plan is cleared first.
+     * @return the length of the path, or -1 if there is no path.
+     */
+    public int shortestPath(int startX, int startY, int destX, int destY, Deque<Direction> plan) {
+        plan.clear();
+        if (!_grid.isWalkable(startX, startY) || !_grid.isWalkable(destX, destY)) {
+            return -1;
+        }
+        int start = _grid.index(startX, startY);
+        int dest = _grid.index(destX, destY);
+        if (start == dest) {
+            return 0;
+        }
+        ensureBuilt();
+        if ((_nodeOf[start] < 0 && _chainOf[start] < 0)
+                || (_nodeOf[dest] < 0 && _chainOf[dest] < 0)) {
+            return -1; // on a corridor loop with no nodes, which can't reach anything else
+        }
+        int nodes = _nodeCell.length;
+        // node numbers: graph nodes are 0..nodes-1, the destination is nodes.
+        int target = nodes;
+        if (_cost == null) {
+            _cost = new int[nodes + 1];
+            _parent = new int[nodes + 1];
+            _parentEdge = new int[nodes + 1];
+            _parentFrom = new int[nodes + 1];
+            _parentTo = new int[nodes + 1];
+            _route = new int[nodes + 1];
+            _heap = new MinHeap();
+        }
+        Arrays.fill(_cost, Integer.MAX_VALUE);
+        _heap.clear();
+
+        // the start is a node, or sits on an edge and can walk to either end of it.
+        if (_nodeOf[start] >= 0) {
+            relax(_nodeOf[start], 0, -1, -1, 0, 0);
+        } else {
+            int e = _chainOf[start];
+            int p = _chainPos[start];
+            relax(_edgeFrom[e], p, -1, e, p, 0);
+            relax(_edgeTo[e], _edgeLength[e] - p, -1, e, p, _edgeLength[e]);
+        }
+        int destEdge = -1;
+        int destPos = 0;
+        if (_nodeOf[dest] < 0) {
+            destEdge = _chainOf[dest];
+            destPos = _chainPos[dest];
+            if (_nodeOf[start] < 0 && _chainOf[start] == destEdge) {
+                int p = _chainPos[start];
+                relax(target, Math.abs(p - destPos), -1, destEdge, p, destPos);
+            }
+        }
+
+        while (!_heap.isEmpty()) {
+            int node = _heap.minValue();
+            int cost = _heap.minKey();
+            _heap.removeMin();
+            if (cost > _cost[node]) {
+                continue;
+            }
+            if (node == target) {
+                break;
+            }
+            if (_nodeCell[node] == dest) {
+                relax(target, cost, node, -1, 0, 0);
+                continue;
+            }
+            if (destEdge >= 0 && node == _edgeFrom[destEdge]) {
+                relax(target, cost + destPos, node, destEdge, 0, destPos);
+            }
+            if (destEdge >= 0 && node == _edgeTo[destEdge]) {
+                relax(target, cost + _edgeLength[destEdge] - destPos,
+                        node, destEdge, _edgeLength[destEdge], destPos);
+            }
+            for (int k = _adjStart[node]; k < _adjStart[node + 1]; k++) {
+                int e = _adj[k] / 2;
+                boolean backwards = _adj[k] % 2 == 1;
+                int next = backwards ? _edgeFrom[e] : _edgeTo[e];
+                int fromPos = backwards ? _edgeLength[e] : 0;
+                int toPos = backwards ? 0 : _edgeLength[e];
+                relax(next, cost + _edgeLength[e], node, e, fromPos, toPos);
+            }
+        }
+        if (_cost[target] == Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        // collect the route back to the start, then walk it forwards.
+        int hops = 0;
+        for (int node = target; node >= 0; node = _parent[node]) {
+            _route[hops++] = node;
+        }
+        for (int k = hops - 1; k >= 0; k--) {
+            int node = _route[k];
+            if (_parentEdge[node] >= 0) {
+                walkEdge(_parentEdge[node], _parentFrom[node], _parentTo[node], plan);
+            }
+        }
+        return _cost[target];
+    }
+
+    /**
+     * Records that node can be reached with the given cost, by walking edge from position fromPos
+     * to position toPos after reaching parent, if that's cheaper than what's known.
+     */
+    private void relax(int node, int cost, int parent, int edge, int fromPos, int toPos) {
+        if (cost >= _cost[node]) {
+            return;
+        }
+        _cost[node] = cost;
+        _parent[node] = parent;
+        _parentEdge[node] = edge;
+        _parentFrom[node] = fromPos;
+        _parentTo[node] = toPos;
+        _heap.push(cost, node);
+    }
+
+    /**
+     * Writes the steps along edge e from position fromPos to position toPos into plan.
+     */
+    private void walkEdge(int e, int fromPos, int toPos, Deque<Direction> plan) {
+        int step = toPos > fromPos ? 1 : -1;
+        for (int pos = fromPos; pos != toPos; pos += step) {
+            plan.addLast(_grid.directionBetween(cellAt(e, pos), cellAt(e, pos + step)));
+        }
+    }
+
+    /**
+     * Returns the cell at position pos along edge e.
+     */
+    private int cellAt(int e, int pos) {
+        if (pos == 0) {
+            return _nodeCell[_edgeFrom[e]];
+        } else if (pos == _edgeLength[e]) {
+            return _nodeCell[_edgeTo[e]];
+        }
+        return _chainCells[_edgeCellStart[e] + pos - 1];
+    }
+
+    /**
+     * Returns the number of walkable neighbours of (x, y).
+     */
+    private int degree(int x, int y) {
+        int count = 0;
+        for (int d = 0; d < 4; d++) {
+            if (neighbour(_grid.index(x, y), d) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the walkable neighbour of cell in direction d (NORTH, SOUTH, EAST, WEST for d = 0, 1,
+     * 2, 3), or -1 if it's a wall or outside the world.
+     */
+    private int neighbour(int cell, int d) {
+        int x = cell / _grid.height();
+        int y = cell % _grid.height();
+        switch (d) {
+            case 0:
+                y++;
+                break;
+            case 1:
+                y--;
+                break;
+            case 2:
+                x++;
+                break;
+            default:
+                x--;
+                break;
+        }
+        return _grid.isWalkable(x, y) ? _grid.index(x, y) : -1;
+    }
+}
@@ -1,6 +1,6 @@
 package byow.Core;
 
-import byow.TileEngine.TETile;
+import byow.TileEngine.WorldModel;
 
 import java.io.Serializable;
 import java.util.HashMap;
@@ -85,21 +85,31 @@ public class Player implements Serializable {
         return _dread;
     }
 
+    /**
+     * Puts the player back where it was, e.g. when a game is loaded.
+     */
+    void restore(int x, int y, int dread, boolean alive) {
+        _x = x;
+        _y = y;
+        _dread = dread;
+        _alive = alive;
+    }
+
     /**
      * Check if a character's move is valid.
      * @param move one of "wasdWASD"
      * @return true if move is valid (not a wall)
      */
-    public boolean checkValidMove(char move, TETile[][] world) {
+    public boolean checkValidMove(char move, WorldModel world) {
         switch (move) {
             case 'w', 'W':
-                return !(world[_x][(_y+1)].character()=='#');
+                return !(world.character(_x, _y+1)=='#');
             case 's', 'S':
-                return !(world[_x][(_y-1)].character()=='#');
+                return !(world.character(_x, _y-1)=='#');
             case 'a', 'A':
-                return !(world[_x-1][_y].character()=='#');
+                return !(world.character(_x-1, _y)=='#');
             case 'd', 'D':
-                return !(world[_x+1][_y].character()=='#');
+                return !(world.character(_x+1, _y)=='#');
             default:
                 return false;
         }
@@ -0,0 +1,60 @@
+package byow.Core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * An InputSource that reads keys from a Reader (e.g. a file or System.in) as they're needed.
+ * Only a small buffer of keys is kept, so an input of any length is read in constant memory,
+ * unlike StringInputDevice which needs the whole input as a String.
+ * Closing the reader is up to whoever made it.
+ */
+public class ReaderInputSource implements InputSource {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader _reader;
+    private final char[] _buffer = new char[BUFFER_SIZE];
+    /* the keys not read yet are _buffer[_next] to _buffer[_end - 1] */
+    private int _next;
+    private int _end;
+    private boolean _finished;
+
+    public ReaderInputSource(Reader reader) {
+        _reader = reader;
+    }
+
+    public char getNextKey() {
+        if (!possibleNextInput()) {
+            throw new IllegalStateException("No more input");
+        }
+        return _buffer[_next++];
+    }
+
+    /**
+     * Returns true iff there's another key. Waits for more of the input if the buffer is empty.
+     */
+    public boolean possibleNextInput() {
+        while (_next == _end && !_finished) {
+            fill();
+        }
+        return _next < _end;
+    }
+
+    /**
+     * Reads the next part of the input into the buffer.
+     */
+    private void fill() {
+        try {
+            int read = _reader.read(_buffer, 0, _buffer.length);
+            if (read < 0) {
+                _finished = true;
+                read = 0;
+            }
+            _next = 0;
+            _end = read;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
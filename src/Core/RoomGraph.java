@@ -1,20 +1,53 @@
 package byow.Core;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 /**
  * Class that represents the relationship between rooms in an undirected graph.
+ *
+ * With more than SPARSE_ROOMS rooms, an adjacency matrix would take n^2 memory and Prim's
+ * algorithm on it n^2 time, which is too much for big worlds (tens of thousands of rooms). Those
+ * graphs are sparse instead: each room is only joined to candidates, its NEIGHBOURS nearest
+ * rooms (found with a grid of buckets), the MST is built from the candidates with Kruskal's
+ * algorithm, and the random edges are picked from the candidates too. Sparse graphs have no
+ * adjacency matrix; use edgeCount, edgeFrom and edgeTo instead.
+ * The game's own worlds (80x48, and ChunkedWorld's chunks) have a few dozen rooms, so only worlds
+ * made by using a WorldGenerator directly get this big; one of 700x500 has about 2000 rooms.
  */
 public class RoomGraph {
+    /* graphs with more rooms than this are sparse */
+    static final int SPARSE_ROOMS = 1024;
+    /* how many of its nearest rooms each room has candidate edges to, in a sparse graph */
+    static final int NEIGHBOURS = 6;
+
     private List<Room> _roomList;
+    /* null if the graph is sparse */
     private double[][] _adjMatrix;
     private Random _random;
 
+    /* Sparse graphs only. Candidate edge k joins _candidateFrom[k] and _candidateTo[k] and is
+    _candidateDist[k] long, squared; every pair of rooms is a candidate at most once. */
+    private int[] _candidateFrom;
+    private int[] _candidateTo;
+    private long[] _candidateDist;
+    private int _candidateCount;
+    /* Sparse graphs only. Edge k of the graph joins _edgeFrom[k] and _edgeTo[k]. */
+    private int[] _edgeFrom;
+    private int[] _edgeTo;
+    private int _edgeCount;
+    /* Sparse graphs only. True for the candidates that are edges of the graph. */
+    private boolean[] _candidateUsed;
+
     public RoomGraph(List<Room> roomList, Random random) {
         _roomList = roomList;
         _random = random;
         int vertexCount = roomList.size();
+        if (vertexCount > SPARSE_ROOMS) {
+            findCandidates();
+            return;
+        }
         _adjMatrix = new double[vertexCount][vertexCount];
         for (int i = 0; i < vertexCount; i++) {
             for (int j = 0; j < vertexCount; j++) {
@@ -35,6 +68,12 @@ public class RoomGraph {
             output.append(room.toString());
             output.append("\n");
         }
+        if (isSparse()) {
+            for (int k = 0; k < _edgeCount; k++) {
+                output.append(_edgeFrom[k]).append("-").append(_edgeTo[k]).append("\n");
+            }
+            return output.toString();
+        }
         for (int i = 0; i < vertexCount; i++) {
             for (int j = 0; j < vertexCount; j++) {
                 output.append(_adjMatrix[i][j]);
@@ -53,6 +92,10 @@ public class RoomGraph {
      * 4440251/minimal-spanning-tree-from-adjacency-matrix-in-java
      */
     public void pa() {
+        if (isSparse()) {
+            kruskal();
+            return;
+        }
         int numberOfVertices = _roomList.size();
         int[] source = new int[numberOfVertices];
         double[] dist = new double[numberOfVertices];
@@ -110,6 +153,10 @@ public class RoomGraph {
      * @param n
      */
     public void addRandomEdges(int n) {
+        if (isSparse()) {
+            addRandomCandidates(n);
+            return;
+        }
         int count = 0;
         int numberOfVertices = _roomList.size();
         while (count < n) {
@@ -128,7 +175,276 @@ public class RoomGraph {
         return _roomList;
     }
 
+    /**
+     * Returns the adjacency matrix, or null if the graph is sparse.
+     */
     public double[][] getAdjMatrix() {
         return _adjMatrix;
     }
+
+    /**
+     * Returns true iff the graph has too many rooms for an adjacency matrix (see SPARSE_ROOMS).
+     */
+    public boolean isSparse() {
+        return _adjMatrix == null;
+    }
+
+    /**
+     * Returns the number of edges in a sparse graph.
+     */
+    public int edgeCount() {
+        return _edgeCount;
+    }
+
+    /**
+     * Returns the index of one room edge k of a sparse graph joins.
+     */
+    public int edgeFrom(int k) {
+        return _edgeFrom[k];
+    }
+
+    /**
+     * Returns the index of the other room edge k of a sparse graph joins.
+     */
+    public int edgeTo(int k) {
+        return _edgeTo[k];
+    }
+
+    /**
+     * Helper for the constructor of sparse graphs. Finds the candidate edges: from each room to
+     * its NEIGHBOURS nearest rooms (by the distance between their centres). The rooms are put in
+     * a grid of buckets about big enough for two rooms each, and each room's nearest rooms are
+     * looked for in rings of buckets around its own, until no room further out could be nearer.
+     */
+    private void findCandidates() {
+        int n = _roomList.size();
+        int[] centreX = new int[n];
+        int[] centreY = new int[n];
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int[] centre = _roomList.get(i).getCenter();
+            centreX[i] = centre[0];
+            centreY[i] = centre[1];
+            minX = Math.min(minX, centre[0]);
+            minY = Math.min(minY, centre[1]);
+            maxX = Math.max(maxX, centre[0]);
+            maxY = Math.max(maxY, centre[1]);
+        }
+        int cellSize = Math.max(1, (int) Math.ceil(Math.sqrt(
+                2.0 * (maxX - minX + 1) * (maxY - minY + 1) / n)));
+        int gridWidth = (maxX - minX) / cellSize + 1;
+        int gridHeight = (maxY - minY) / cellSize + 1;
+
+        // bucket the rooms by cell (a counting sort, so each cell's rooms are in index order)
+        int[] cellStart = new int[gridWidth * gridHeight + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = (centreX[i] - minX) / cellSize * gridHeight
+                    + (centreY[i] - minY) / cellSize;
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < gridWidth * gridHeight; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] cellRooms = new int[n];
+        int[] filled = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < n; i++) {
+            cellRooms[filled[cellOf[i]]++] = i;
+        }
+
+        // room i's nearest rooms are neighbours[i * NEIGHBOURS ...], nearest first
+        int[] neighbours = new int[n * NEIGHBOURS];
+        int[] neighbourCount = new int[n];
+        long[] nearestDist = new long[NEIGHBOURS];
+        int[] nearest = new int[NEIGHBOURS];
+        _candidateFrom = new int[n * NEIGHBOURS];
+        _candidateTo = new int[n * NEIGHBOURS];
+        _candidateDist = new long[n * NEIGHBOURS];
+        for (int i = 0; i < n; i++) {
+            int found = 0;
+            int cellX = (centreX[i] - minX) / cellSize;
+            int cellY = (centreY[i] - minY) / cellSize;
+            for (int ring = 0; ring <= Math.max(gridWidth, gridHeight); ring++) {
+                for (int gx = cellX - ring; gx <= cellX + ring; gx++) {
+                    if (gx < 0 || gx >= gridWidth) {
+                        continue;
+                    }
+                    // the ring's left and right columns are whole; the others only have their ends
+                    boolean wholeColumn = gx == cellX - ring || gx == cellX + ring;
+                    int step = wholeColumn ? 1 : 2 * ring;
+                    for (int gy = cellY - ring; gy <= cellY + ring; gy += step) {
+                        if (gy < 0 || gy >= gridHeight) {
+                            continue;
+                        }
+                        int c = gx * gridHeight + gy;
+                        for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                            int j = cellRooms[k];
+                            if (j == i) {
+                                continue;
+                            }
+                            long dx = centreX[i] - centreX[j];
+                            long dy = centreY[i] - centreY[j];
+                            found = insertNearest(nearestDist, nearest, found,
+                                    dx * dx + dy * dy, j);
+                        }
+                    }
+                }
+                // rooms in the next ring out are more than ring * cellSize away
+                long reach = (long) ring * cellSize;
+                if (found == NEIGHBOURS && nearestDist[NEIGHBOURS - 1] <= reach * reach) {
+                    break;
+                }
+            }
+            for (int k = 0; k < found; k++) {
+                int j = nearest[k];
+                neighbours[i * NEIGHBOURS + k] = j;
+                // (j, i) is a candidate already if i is one of j's nearest rooms
+                boolean seen = false;
+                for (int m = 0; j < i && m < neighbourCount[j]; m++) {
+                    seen |= neighbours[j * NEIGHBOURS + m] == i;
+                }
+                if (!seen) {
+                    _candidateFrom[_candidateCount] = i;
+                    _candidateTo[_candidateCount] = j;
+                    _candidateDist[_candidateCount] = nearestDist[k];
+                    _candidateCount++;
+                }
+            }
+            neighbourCount[i] = found;
+        }
+        _candidateUsed = new boolean[_candidateCount];
+        _edgeFrom = new int[n + 16];
+        _edgeTo = new int[n + 16];
+    }
+
+    /**
+     * Helper for findCandidates. Puts room j, which is dist away (squared), in its place in the
+     * list of the nearest rooms found so far, if it's near enough. Ties go to the room with the
+     * lower index, so the list doesn't depend on the order rooms are looked at.
+     * @return the new length of the list.
+     */
+    private static int insertNearest(long[] nearestDist, int[] nearest, int found, long dist,
+                                     int j) {
+        int k = found;
+        while (k > 0 && (dist < nearestDist[k - 1]
+                || (dist == nearestDist[k - 1] && j < nearest[k - 1]))) {
+            if (k < NEIGHBOURS) {
+                nearestDist[k] = nearestDist[k - 1];
+                nearest[k] = nearest[k - 1];
+            }
+            k--;
+        }
+        if (k < NEIGHBOURS) {
+            nearestDist[k] = dist;
+            nearest[k] = j;
+        }
+        return Math.min(found + 1, NEIGHBOURS);
+    }
+
+    /**
+     * Sparse version of pa. Makes the graph a minimum spanning tree of the candidate edges, with
+     * Kruskal's algorithm and a union-find. The candidates can leave groups of rooms that are
+     * far from all the others unconnected; those groups are then joined one after another, in
+     * the order of their lowest room, so the graph is always connected.
+     */
+    private void kruskal() {
+        int n = _roomList.size();
+        _edgeCount = 0;
+        Arrays.fill(_candidateUsed, false);
+        // shortest first, ties broken by candidate number; distances are far below 2^31
+        long[] order = new long[_candidateCount];
+        for (int k = 0; k < _candidateCount; k++) {
+            order[k] = Math.min(_candidateDist[k], Integer.MAX_VALUE) << 32 | k;
+        }
+        Arrays.sort(order);
+        int[] parent = new int[n];
+        int[] size = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        for (int m = 0; m < order.length && _edgeCount < n - 1; m++) {
+            int k = (int) order[m];
+            if (union(parent, size, _candidateFrom[k], _candidateTo[k])) {
+                _candidateUsed[k] = true;
+                addEdge(_candidateFrom[k], _candidateTo[k]);
+            }
+        }
+        int previous = -1;
+        for (int i = 0; i < n && _edgeCount < n - 1; i++) {
+            if (find(parent, i) != i) {
+                continue;
+            }
+            if (previous >= 0 && union(parent, size, previous, i)) {
+                addEdge(previous, i);
+            }
+            previous = i;
+        }
+    }
+
+    /**
+     * Sparse version of addRandomEdges. Adds up to n candidate edges that aren't in the graph,
+     * picked at random.
+     */
+    private void addRandomCandidates(int n) {
+        int unused = 0;
+        for (boolean used : _candidateUsed) {
+            if (!used) {
+                unused++;
+            }
+        }
+        for (int count = 0; count < n && count < unused; ) {
+            int k = _random.nextInt(_candidateCount);
+            if (_candidateUsed[k]) {
+                continue; // don't replace an edge that's already there!
+            }
+            _candidateUsed[k] = true;
+            addEdge(_candidateFrom[k], _candidateTo[k]);
+            count++;
+        }
+    }
+
+    private void addEdge(int from, int to) {
+        if (_edgeCount == _edgeFrom.length) {
+            _edgeFrom = Arrays.copyOf(_edgeFrom, _edgeCount * 2);
+            _edgeTo = Arrays.copyOf(_edgeTo, _edgeCount * 2);
+        }
+        _edgeFrom[_edgeCount] = from;
+        _edgeTo[_edgeCount] = to;
+        _edgeCount++;
+    }
+
+    /**
+     * Returns the representative of i's set in a union-find, halving the path to it on the way.
+     */
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Joins the sets of a and b in a union-find, the smaller under the bigger.
+     * @return false if they were in the same set already.
+     */
+    private static boolean union(int[] parent, int[] size, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA == rootB) {
+            return false;
+        }
+        if (size[rootA] < size[rootB]) {
+            int t = rootA;
+            rootA = rootB;
+            rootB = t;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+        return true;
+    }
 }
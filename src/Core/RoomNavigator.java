@@ -0,0 +1,291 @@
+package byow.Core;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Hierarchical pathfinding over the rooms made by the WorldGenerator.
+ * An entrance is a walkable cell outside every room that touches a room's floor, i.e. the end of a
+ * hallway where it opens into a room. After generation, a BFS is run out of every entrance which
+ * stops at the other entrances it reaches, giving an abstract graph of entrances with the exact
+ * walking distance between neighbouring entrances (across a room, or along a hallway).
+ *
+ * A query then only searches tiles locally: out from the start and the goal until their nearest
+ * entrances. A Dijkstra's over the entrance graph picks the route, and only the first segments of
+ * that route are refined into tiles with a bounded A*, since a crawler only needs its next steps.
+ */
+public class RoomNavigator implements Serializable {
+    private final GridPathfinder _grid;
+    /* cell index of every entrance */
+    private final int[] _entrances;
+    /* entrance graph, as adjacency lists: the edges of entrance i are
+    _edgeTarget[_edgeStart[i].._edgeStart[i+1]) with costs _edgeCost[...] */
+    private final int[] _edgeStart;
+    private final int[] _edgeTarget;
+    private final int[] _edgeCost;
+
+    /* entrance number of each cell, or -1; rebuilt after loading a save */
+    private transient int[] _entranceOf;
+    /* scratch space for queries, made the first time it's needed */
+    private transient int[] _distances;
+    private transient int[] _touched;
+    /* number of cells whose _distances entry was set by the last local search */
+    private transient int _touchedCount;
+    private transient int[] _nodeCost;
+    private transient int[] _nodeParent;
+    private transient int[] _exitCost;
+    private transient int[] _route;
+    private transient MinHeap _heap;
+    private transient ArrayDeque<Direction> _segment;
+
+    /**
+     * Builds the entrance graph.
+     * @param grid the walkability grid of the generated world.
+     * @param rooms the rooms the world was generated from.
+     */
+    public RoomNavigator(GridPathfinder grid, List<Room> rooms) {
+        _grid = grid;
+        int size = grid.width() * grid.height();
+        boolean[] inRoom = new boolean[size];
+        for (Room r : rooms) {
+            for (int x = r.getX() + 1; x <= r.getX() + r.getWidth(); x++) {
+                for (int y = r.getY() + 1; y <= r.getY() + r.getHeight(); y++) {
+                    inRoom[grid.index(x, y)] = true;
+                }
+            }
+        }
+
+        int count = 0;
+        int[] entrances = new int[size];
+        for (int x = 0; x < grid.width(); x++) {
+            for (int y = 0; y < grid.height(); y++) {
+                int i = grid.index(x, y);
+                if (grid.isWalkable(x, y) && !inRoom[i]
+                        && (touchesRoom(x + 1, y, inRoom) || touchesRoom(x - 1, y, inRoom)
+                        || touchesRoom(x, y + 1, inRoom) || touchesRoom(x, y - 1, inRoom))) {
+                    entrances[count++] = i;
+                }
+            }
+        }
+        _entrances = Arrays.copyOf(entrances, count);
+        buildEntranceIndex();
+
+        // BFS out of every entrance to find the distances to its neighbouring entrances.
+        _edgeStart = new int[count + 1];
+        int[] targets = new int[16];
+        int[] costs = new int[16];
+        int edges = 0;
+        for (int e = 0; e < count; e++) {
+            _edgeStart[e] = edges;
+            int reached = localSearch(_entrances[e], -1);
+            for (int k = 0; k < reached; k++) {
+                int cell = _touched[k];
+                int other = _entranceOf[cell];
+                if (other < 0 || other == e) {
+                    continue;
+                }
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    costs = Arrays.copyOf(costs, edges * 2);
+                }
+                targets[edges] = other;
+                costs[edges] = _distances[cell];
+                edges++;
+            }
+        }
+        _edgeStart[count] = edges;
+        _edgeTarget = Arrays.copyOf(targets, edges);
+        _edgeCost = Arrays.copyOf(costs, edges);
+    }
+
+    /**
+     * Returns the number of entrances in the abstract graph.
+     */
+    public int entranceCount() {
+        return _entrances.length;
+    }
+
+    /**
+     * Finds a shortest path from (startX, startY) to (destX, destY), using the entrance graph to
+     * pick the route and refining the route into tiles until the plan has at least maxSteps steps
+     * (or reaches the destination). plan is cleared first.
+     * @return the length of the whole path, or -1 if there is no path.
+     */
+    public int shortestPath(int startX, int startY, int destX, int destY, int maxSteps,
+                            Deque<Direction> plan) {
+        plan.clear();
+        if (!_grid.isWalkable(startX, startY) || !_grid.isWalkable(destX, destY)) {
+            return -1;
+        }
+        buildEntranceIndex();
+        int start = _grid.index(startX, startY);
+        int dest = _grid.index(destX, destY);
+        int nodes = _entrances.length;
+        // node numbers: entrances are 0..nodes-1, the destination is nodes.
+        Arrays.fill(_nodeCost, Integer.MAX_VALUE);
+        Arrays.fill(_nodeParent, -1);
+        Arrays.fill(_exitCost, -1);
+
+        // search locally out of the destination, recording its distance from nearby entrances.
+        int reached = localSearch(dest, start);
+        for (int k = 0; k < reached; k++) {
+            int e = _entranceOf[_touched[k]];
+            if (e >= 0) {
+                _exitCost[e] = _distances[_touched[k]];
+            }
+        }
+
+        // search locally out of the start, seeding the entrances it reaches.
+        _heap.clear();
+        reached = localSearch(start, dest);
+        for (int k = 0; k < reached; k++) {
+            int cell = _touched[k];
+            int node = cell == dest ? nodes : _entranceOf[cell];
+            if (node >= 0 && _distances[cell] < _nodeCost[node]) {
+                _nodeCost[node] = _distances[cell];
+                _heap.push(_nodeCost[node], node);
+            }
+        }
+
+        // Dijkstra's over the entrance graph.
+        while (!_heap.isEmpty()) {
+            int node = _heap.minValue();
+            int cost = _heap.minKey();
+            _heap.removeMin();
+            if (cost > _nodeCost[node]) {
+                continue;
+            }
+            if (node == nodes) {
+                break;
+            }
+            if (_exitCost[node] >= 0 && cost + _exitCost[node] < _nodeCost[nodes]) {
+                _nodeCost[nodes] = cost + _exitCost[node];
+                _nodeParent[nodes] = node;
+                _heap.push(_nodeCost[nodes], nodes);
+            }
+            for (int k = _edgeStart[node]; k < _edgeStart[node + 1]; k++) {
+                int next = _edgeTarget[k];
+                int nextCost = cost + _edgeCost[k];
+                if (nextCost < _nodeCost[next]) {
+                    _nodeCost[next] = nextCost;
+                    _nodeParent[next] = node;
+                    _heap.push(nextCost, next);
+                }
+            }
+        }
+        if (_nodeCost[nodes] == Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        // collect the route, from the destination back to the start.
+        int waypoints = 0;
+        for (int node = nodes; node >= 0; node = _nodeParent[node]) {
+            _route[waypoints++] = node;
+        }
+        // refine the route into tiles segment by segment, starting from the start. Each segment
+        // is at most as long as the cost the entrance graph gave it, which bounds the A* search.
+        int fromX = startX;
+        int fromY = startY;
+        int fromCost = 0;
+        for (int k = waypoints - 1; k >= 0 && plan.size() < maxSteps; k--) {
+            int node = _route[k];
+            int to = node == nodes ? dest : _entrances[node];
+            int toX = to / _grid.height();
+            int toY = to % _grid.height();
+            if (_grid.aStar(fromX, fromY, toX, toY, _nodeCost[node] - fromCost, _segment) < 0) {
+                return -1;
+            }
+            while (!_segment.isEmpty()) {
+                plan.addLast(_segment.pollFirst()); // addAll would allocate
+            }
+            fromX = toX;
+            fromY = toY;
+            fromCost = _nodeCost[node];
+        }
+        return _nodeCost[nodes];
+    }
+
+    /**
+     * BFS from cell which doesn't go through entrances (other than cell itself) or through stop.
+     * Every cell reached is left in _touched, with its distance from cell in _distances.
+     * @return the number of cells reached.
+     */
+    private int localSearch(int cell, int stop) {
+        buildEntranceIndex();
+        int height = _grid.height();
+        for (int k = 0; k < _touchedCount; k++) {
+            _distances[_touched[k]] = -1;
+        }
+        int head = 0;
+        int tail = 0;
+        _distances[cell] = 0;
+        _touched[tail++] = cell;
+        while (head < tail) {
+            int current = _touched[head++];
+            if ((current != cell && _entranceOf[current] >= 0) || current == stop) {
+                continue; // entrances and the other end of the query are leaves
+            }
+            int x = current / height;
+            int y = current % height;
+            int next = _distances[current] + 1;
+            tail = visit(x, y + 1, next, tail);
+            tail = visit(x, y - 1, next, tail);
+            tail = visit(x + 1, y, next, tail);
+            tail = visit(x - 1, y, next, tail);
+        }
+        _touchedCount = tail;
+        return tail;
+    }
+
+    /**
+     * Helper for localSearch. Labels (x, y) with distance if it's walkable and unlabelled.
+     * @return the new tail of the queue.
+     */
+    private int visit(int x, int y, int distance, int tail) {
+        if (!_grid.isWalkable(x, y)) {
+            return tail;
+        }
+        int i = _grid.index(x, y);
+        if (_distances[i] != -1) {
+            return tail;
+        }
+        _distances[i] = distance;
+        _touched[tail] = i;
+        return tail + 1;
+    }
+
+    /**
+     * Makes the per-cell entrance index and the scratch arrays, if they don't exist yet.
+     */
+    private void buildEntranceIndex() {
+        if (_entranceOf != null) {
+            return;
+        }
+        int size = _grid.width() * _grid.height();
+        _entranceOf = new int[size];
+        Arrays.fill(_entranceOf, -1);
+        for (int e = 0; e < _entrances.length; e++) {
+            _entranceOf[_entrances[e]] = e;
+        }
+        _distances = new int[size];
+        Arrays.fill(_distances, -1);
+        _touched = new int[size];
+        _touchedCount = 0;
+        _nodeCost = new int[_entrances.length + 1];
+        _nodeParent = new int[_entrances.length + 1];
+        _exitCost = new int[_entrances.length];
+        _route = new int[_entrances.length + 1];
+        _heap = new MinHeap();
+        _segment = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns true iff (x, y) is a room floor cell.
+     */
+    private boolean touchesRoom(int x, int y, boolean[] inRoom) {
+        return _grid.isWalkable(x, y) && inRoom[_grid.index(x, y)];
+    }
+}
@@ -0,0 +1,391 @@
+package byow.Core;
+
+import byow.TileEngine.WorldModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+
+/**
+ * Reads and writes saved games in a small binary format, instead of serializing the whole Game.
+ * A generated world can be made again from its seed, so a save only stores the seed and what has
+ * happened since: the random number generator's state, the player and enemies, and the cells of
+ * the world that are different from the freshly generated one (which is usually just the cells
+ * the player and enemies moved through). An 80x48 game saves to a few hundred bytes.
+ *
+ * The format, all big-endian, with "varint" meaning an unsigned LEB128 number:
+ *   int magic, byte version,
+ *   long seed, byte difficulty, varint width, varint height, long random state,
+ *   boolean dark, boolean running, varint ticks,
+ *   player: varint x, varint y, int dread, varint fov, boolean alive,
+ *   varint enemy count, then each enemy: varint x, varint y, boolean alive, boolean aggro,
+ *   byte chase mode, varint plan length, then each step of its plan as a byte,
+ *   palette check: varint palette size, then each tile's character as a char,
+ *   varint changed cell count, then each cell: varint gap from the previous cell's index,
+ *   varint packed cell (see WorldModel.packedCell),
+ *   varint path cell count, then each: varint gap from the previous path cell's index.
+ * Loading regenerates the world, lights it the same way if the lights were on, and applies the
+ * changed cells. Crawlers in INCREMENTAL chase mode forget the path they were repairing, which
+ * they rebuild on the next tick.
+ *
+ * Games that weren't made with Game.generate (so have no seed, or a plain Random whose state
+ * can't be read) are still saved with Java serialization, and those saves, like saves from before
+ * this format, still load.
+ *
+ * A game can also be saved as its InputLog (Format.INPUT_LOG), which is loaded by replaying the
+ * events since the log's keyframe. Its format is:
+ *   int log magic, byte log version,
+ *   long seed, byte difficulty, varint width, varint height, varint keyframe interval,
+ *   varint events before the keyframe, varint keyframe length (0 if there's no keyframe), then
+ *   the keyframe as a snapshot in the format above,
+ *   varint count of the events since the keyframe, then those events, one byte each.
+ * A game loaded from a snapshot has no log (the start of it is gone), so it's always saved as a
+ * snapshot.
+ */
+public class SaveCodec {
+    /* "LBYR" */
+    private static final int MAGIC = 0x4C425952;
+    /* "LBYL" */
+    private static final int LOG_MAGIC = 0x4C42594C;
+    private static final int VERSION = 1;
+    private static final int LOG_VERSION = 2;
+    /* the first byte of every Java serialization stream */
+    private static final int SERIALIZED_FIRST_BYTE = 0xAC;
+
+    /**
+     * What a game is saved as.
+     */
+    public enum Format {
+        /* the state of the game */
+        SNAPSHOT,
+        /* the game's InputLog, with its keyframe */
+        INPUT_LOG
+    }
+
+    private SaveCodec() {
+    }
+
+    /**
+     * Saves game to file as a snapshot, in the binary format if it can be.
+     */
+    public static void save(File file, Game game) {
+        save(file, game, Format.SNAPSHOT);
+    }
+
+    /**
+     * Saves game to file in the given format. Games that can't be saved in that format are saved
+     * as a snapshot, and games that can't be encoded at all are serialized.
+     */
+    public static void save(File file, Game game, Format format) {
+        Utils.writeContents(file, (Object) toBytes(game, format));
+    }
+
+    /**
+     * Returns the bytes save would write for game, for keeping saves somewhere other than
+     * their own file (e.g. a SaveStore).
+     */
+    public static byte[] toBytes(Game game, Format format) {
+        if (!canEncode(game)) {
+            return Utils.serialize(game);
+        }
+        if (format == Format.INPUT_LOG && game._log != null) {
+            return encodeLog(game._log);
+        }
+        return encode(game);
+    }
+
+    /**
+     * Makes the game saved in bytes from toBytes, in any format.
+     * Throws IllegalArgumentException if bytes isn't a saved game.
+     */
+    public static Game fromBytes(byte[] bytes) {
+        if (bytes.length > 0 && (bytes[0] & 0xFF) == SERIALIZED_FIRST_BYTE) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (Game) in.readObject();
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return decode(bytes);
+    }
+
+    /**
+     * Loads a game saved with save, in either format.
+     * Throws IllegalArgumentException if the file can't be read or isn't a saved game.
+     */
+    public static Game load(File file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return fromBytes(bytes);
+    }
+
+    /**
+     * Returns true iff game can be saved in the binary format.
+     */
+    public static boolean canEncode(Game game) {
+        return game._seed != null && game._random instanceof GameRandom
+                && game._world.hasBaseline();
+    }
+
+    /**
+     * Returns game in the binary format. The game must be one canEncode accepts.
+     */
+    public static byte[] encode(Game game) {
+        return encode(new GameSnapshot(game));
+    }
+
+    /**
+     * Returns the game snapshot was taken of in the binary format. This doesn't touch the game
+     * itself, so it can be done on any thread.
+     */
+    public static byte[] encode(GameSnapshot snapshot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+
+            out.writeLong(snapshot._seed);
+            out.writeByte(snapshot._difficulty.ordinal());
+            writeVarInt(out, snapshot._width);
+            writeVarInt(out, snapshot._height);
+            out.writeLong(snapshot._randomState);
+            out.writeBoolean(snapshot._dark);
+            out.writeBoolean(snapshot._running);
+            writeVarInt(out, snapshot._ticks);
+
+            writeVarInt(out, snapshot._playerX);
+            writeVarInt(out, snapshot._playerY);
+            out.writeInt(snapshot._playerDread);
+            writeVarInt(out, snapshot._playerFov);
+            out.writeBoolean(snapshot._playerAlive);
+
+            writeVarInt(out, snapshot._enemyX.length);
+            for (int k = 0; k < snapshot._enemyX.length; k++) {
+                writeVarInt(out, snapshot._enemyX[k]);
+                writeVarInt(out, snapshot._enemyY[k]);
+                out.writeBoolean(snapshot._enemyAlive[k]);
+                out.writeBoolean(snapshot._enemyAggro[k]);
+                out.writeByte(snapshot._enemyChaseMode[k].ordinal());
+                // the first step of the plan is the move the enemy makes next tick
+                writeVarInt(out, snapshot._enemyPlan[k].length);
+                for (Direction step : snapshot._enemyPlan[k]) {
+                    out.writeByte(step.ordinal());
+                }
+            }
+
+            writeVarInt(out, snapshot._palette.length);
+            for (char c : snapshot._palette) {
+                out.writeChar(c);
+            }
+
+            // the snapshot only has the cells that differ from the generated world
+            writeVarInt(out, snapshot._changedCells.length);
+            int last = 0;
+            for (int k = 0; k < snapshot._changedCells.length; k++) {
+                writeVarInt(out, snapshot._changedCells[k] - last);
+                writeVarInt(out, snapshot._changedValues[k]);
+                last = snapshot._changedCells[k];
+            }
+
+            writeVarInt(out, snapshot._pathCells.length);
+            last = 0;
+            for (int i : snapshot._pathCells) {
+                writeVarInt(out, i - last);
+                last = i;
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Makes the game saved in bytes by encode or encodeLog.
+     * Throws IllegalArgumentException if bytes isn't a save this version can read.
+     */
+    public static Game decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int magic = in.readInt();
+            if (magic == LOG_MAGIC) {
+                return decodeLog(in);
+            }
+            if (magic != MAGIC) {
+                throw new IllegalArgumentException("Not a saved game.");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown save version " + version + ".");
+            }
+
+            long seed = in.readLong();
+            Difficulty difficulty = Difficulty.values()[in.readUnsignedByte()];
+            int width = readVarInt(in);
+            int height = readVarInt(in);
+            Game game = Game.generate(seed, difficulty, width, height);
+            ((GameRandom) game._random).setState(in.readLong());
+            game._dark = in.readBoolean();
+            if (!game._dark) {
+                game._world.flipAllDark('@');
+            }
+            game._running = in.readBoolean();
+            game._ticks = readVarInt(in);
+
+            int x = readVarInt(in);
+            int y = readVarInt(in);
+            int dread = in.readInt();
+            game._player.setFOV(readVarInt(in));
+            game._player.restore(x, y, dread, in.readBoolean());
+
+            int enemies = readVarInt(in);
+            if (enemies != game._enemies.size()) {
+                throw new IllegalArgumentException("Save has " + enemies + " enemies, but its "
+                        + "world has " + game._enemies.size() + ".");
+            }
+            for (Enemy e : game._enemies) {
+                e._x = readVarInt(in);
+                e._y = readVarInt(in);
+                e._alive = in.readBoolean();
+                e._aggro = in.readBoolean();
+                ChaseMode mode = ChaseMode.values()[in.readUnsignedByte()];
+                if (e instanceof Crawler) {
+                    ((Crawler) e).setChaseMode(mode);
+                }
+                e._plan.clear();
+                for (int steps = readVarInt(in); steps > 0; steps--) {
+                    e._plan.addLast(Direction.values()[in.readUnsignedByte()]);
+                }
+            }
+
+            WorldModel world = game._world;
+            int paletteSize = readVarInt(in);
+            for (int id = 0; id < paletteSize; id++) {
+                char c = in.readChar();
+                if (id >= world.paletteSize() || world.paletteTile(id).character() != c) {
+                    throw new IllegalArgumentException("Save doesn't match the world generated "
+                            + "from its seed.");
+                }
+            }
+
+            int changed = readVarInt(in);
+            int i = 0;
+            for (int k = 0; k < changed; k++) {
+                i += readVarInt(in);
+                world.setPackedCell(i, readVarInt(in));
+            }
+            int paths = readVarInt(in);
+            i = 0;
+            for (int k = 0; k < paths; k++) {
+                i += readVarInt(in);
+                world.markPath(i / height, i % height);
+            }
+            // what happened before the snapshot isn't known
+            game._log = null;
+            return game;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Save is corrupt.", e);
+        }
+    }
+
+    /**
+     * Returns log in the input log format. This encodes the log's keyframe, and doesn't touch
+     * the game, so it can be done on any thread with a copy of the log (see InputLog.copy).
+     */
+    public static byte[] encodeLog(InputLog log) {
+        byte[] keyframe = log.keyframe() == null ? new byte[0] : encode(log.keyframe());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(keyframe.length
+                + log.eventsSinceKeyframe() + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(LOG_MAGIC);
+            out.writeByte(LOG_VERSION);
+            out.writeLong(log._seed);
+            out.writeByte(log._difficulty.ordinal());
+            writeVarInt(out, log._width);
+            writeVarInt(out, log._height);
+            writeVarInt(out, log._keyframeInterval);
+            writeVarInt(out, log.keyframeAt());
+            writeVarInt(out, keyframe.length);
+            out.write(keyframe);
+            writeVarInt(out, log.eventsSinceKeyframe());
+            for (int k = 0; k < log.eventsSinceKeyframe(); k++) {
+                out.writeByte(log.event(k));
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper for decode. Reads the rest of an input log, and replays it from its keyframe.
+     * The game keeps logging to the loaded log.
+     */
+    private static Game decodeLog(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != LOG_VERSION) {
+            throw new IllegalArgumentException("Unknown save version " + version + ".");
+        }
+        long seed = in.readLong();
+        Difficulty difficulty = Difficulty.values()[in.readUnsignedByte()];
+        int width = readVarInt(in);
+        int height = readVarInt(in);
+        int keyframeInterval = readVarInt(in);
+
+        int at = readVarInt(in);
+        byte[] keyframe = null;
+        int length = readVarInt(in);
+        if (length > 0) {
+            keyframe = new byte[length];
+            in.readFully(keyframe);
+        }
+        byte[] events = new byte[readVarInt(in)];
+        in.readFully(events);
+
+        InputLog log = new InputLog(seed, difficulty, width, height, keyframeInterval);
+        Game game;
+        if (keyframe != null) {
+            game = decode(keyframe);
+            log.setKeyframe(at, new GameSnapshot(game));
+        } else {
+            game = Game.generate(seed, difficulty, width, height);
+            game._log = null;
+        }
+        // nothing is logged while replaying, so the events are added to the log separately
+        for (byte event : events) {
+            InputLog.apply(game, event);
+            log.record(event);
+        }
+        game._log = log;
+        return game;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long.");
+    }
+}
@@ -0,0 +1,291 @@
+package byow.Core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Many saved games in one file, for when there are lots of players (e.g. a kiosk), instead of a
+ * save file each. The file is memory-mapped, so saving and loading a game is just copying its
+ * bytes (see SaveCodec.toBytes) to or from memory, with no streams and no system calls apart
+ * from forcing a save to disk.
+ *
+ * The file has a fixed number of slots, each with room for a save of up to slotCapacity bytes,
+ * so finding a slot is a multiplication. Each slot has two areas that saves take turns going in,
+ * so a save never overwrites the one before it: the new save is written to the other area and
+ * forced to disk, and only then is its index entry written, which makes it the slot's save.
+ * A crash in the middle of a save leaves the last save where it was. It's laid out as:
+ *   a header: int magic, int version, int slot count, int slot capacity, padded to HEADER_SIZE,
+ *   an index: for each area of each slot, int length (0 if empty), int CRC of the save, long
+ *   time saved, long sequence number (one more than the slot's save before it),
+ *   then the slots' areas, starting at the first page boundary after the index.
+ * Loading takes the area with the highest sequence number whose CRC matches, so a save whose
+ * index entry was cut off by a crash is skipped rather than loaded wrong, and the one before it
+ * is loaded instead.
+ */
+public class SaveStore {
+    /* "LBYS" */
+    private static final int MAGIC = 0x4C425953;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    /* the size of one area's index entry */
+    private static final int ENTRY_SIZE = 24;
+    private static final int AREAS = 2;
+    private static final int PAGE_SIZE = 4096;
+
+    /* big enough for any snapshot, and input logs, which are a snapshot and at most a keyframe
+    interval of events */
+    public static final int DEFAULT_SLOT_CAPACITY = 8 * 1024;
+
+    private final File _file;
+    private final FileChannel _channel;
+    private final MappedByteBuffer _buffer;
+    private final int _slots;
+    private final int _slotCapacity;
+    /* where slot 0's first area starts in the file */
+    private final int _dataStart;
+
+    /**
+     * Opens the store in file, making it with the given number of slots and slot capacity if it
+     * doesn't exist yet. An existing store keeps its own layout.
+     * Throws IllegalArgumentException if the file isn't a save store.
+     */
+    public static SaveStore open(File file, int slots, int slotCapacity) {
+        if (slots <= 0 || slotCapacity <= 0) {
+            throw new IllegalArgumentException("Slots and slot capacity must be positive.");
+        }
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                if (channel.size() == 0) {
+                    long size = dataStart(slots) + (long) slots * AREAS * slotCapacity;
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Save store would be too big to map.");
+                    }
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slots)
+                            .putInt(12, slotCapacity);
+                    buffer.force();
+                    return new SaveStore(file, channel, buffer, slots, slotCapacity);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        channel.size());
+                if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                    throw new IllegalArgumentException("Not a save store.");
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IllegalArgumentException("Unknown save store version "
+                            + buffer.getInt(4) + ".");
+                }
+                int storedSlots = buffer.getInt(8);
+                int storedCapacity = buffer.getInt(12);
+                if (storedSlots <= 0 || storedCapacity <= 0 || channel.size()
+                        != dataStart(storedSlots) + (long) storedSlots * AREAS * storedCapacity) {
+                    throw new IllegalArgumentException("Save store is corrupt.");
+                }
+                return new SaveStore(file, channel, buffer, storedSlots,
+                        storedCapacity);
+            } catch (RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SaveStore(File file, FileChannel channel, MappedByteBuffer buffer, int slots,
+                      int slotCapacity) {
+        _file = file;
+        _channel = channel;
+        _buffer = buffer;
+        _slots = slots;
+        _slotCapacity = slotCapacity;
+        _dataStart = (int) dataStart(slots);
+    }
+
+    public int slots() {
+        return _slots;
+    }
+
+    public int slotCapacity() {
+        return _slotCapacity;
+    }
+
+    /**
+     * Returns the file the game in slot is journalled to while it's played (see Journal), which
+     * is next to the store. Each slot has its own, so a journal is never loaded into the wrong
+     * slot.
+     */
+    public File journalFile(int slot) {
+        checkSlot(slot);
+        return new File(_file.getPath() + ".slot" + slot + ".journal");
+    }
+
+    /**
+     * Returns true iff there's a save in slot (which may be corrupt).
+     */
+    public synchronized boolean isUsed(int slot) {
+        return _buffer.getInt(entry(slot, 0)) != 0 || _buffer.getInt(entry(slot, 1)) != 0;
+    }
+
+    /**
+     * Returns when the save load would load from slot was made, in milliseconds since the
+     * epoch, or 0 if there isn't one.
+     */
+    public synchronized long savedAt(int slot) {
+        int area = validArea(slot);
+        return area >= 0 ? _buffer.getLong(entry(slot, area) + 8) : 0;
+    }
+
+    /**
+     * Saves game in slot as a snapshot, replacing whatever was there.
+     */
+    public void save(int slot, Game game) {
+        save(slot, game, SaveCodec.Format.SNAPSHOT);
+    }
+
+    /**
+     * Saves game in slot in the given format (see SaveCodec.save), replacing whatever was there,
+     * and forces it to disk.
+     * Throws IllegalArgumentException if the save doesn't fit in a slot.
+     */
+    public void save(int slot, Game game, SaveCodec.Format format) {
+        write(slot, SaveCodec.toBytes(game, format));
+    }
+
+    /**
+     * Puts a save made by SaveCodec (e.g. by toBytes) in slot and forces it to disk. Until it's
+     * all on disk, the slot keeps its last save.
+     * Throws IllegalArgumentException if the save doesn't fit in a slot.
+     */
+    void write(int slot, byte[] bytes) {
+        checkSlot(slot);
+        if (bytes.length > _slotCapacity) {
+            throw new IllegalArgumentException("Save is " + bytes.length + " bytes, but slots "
+                    + "only hold " + _slotCapacity + ".");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        synchronized (this) {
+            // the save load would load is never the one overwritten
+            int area = validArea(slot) == 0 ? 1 : 0;
+            long sequence = Math.max(sequence(slot, 0), sequence(slot, 1)) + 1;
+            int start = area(slot, area);
+            _buffer.put(start, bytes);
+            _buffer.force(start, bytes.length);
+            // the save only counts once its entry is written, after the bytes are on disk
+            int entry = entry(slot, area);
+            _buffer.putInt(entry, bytes.length);
+            _buffer.putInt(entry + 4, (int) crc.getValue());
+            _buffer.putLong(entry + 8, System.currentTimeMillis());
+            _buffer.putLong(entry + 16, sequence);
+            _buffer.force(entry, ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * Loads the game saved in slot. If the newest save is corrupt (e.g. a crash cut off its
+     * index entry), the one before it is loaded.
+     * Throws IllegalArgumentException if there's a save in the slot but it's corrupt.
+     * @return null if the slot is empty.
+     */
+    public Game load(int slot) {
+        byte[] bytes;
+        synchronized (this) {
+            int area = validArea(slot);
+            if (area < 0) {
+                if (isUsed(slot)) {
+                    throw new IllegalArgumentException("Save in slot " + slot + " is corrupt.");
+                }
+                return null;
+            }
+            bytes = new byte[_buffer.getInt(entry(slot, area))];
+            _buffer.get(area(slot, area), bytes);
+        }
+        return SaveCodec.fromBytes(bytes);
+    }
+
+    /**
+     * Empties slot.
+     */
+    public synchronized void delete(int slot) {
+        checkSlot(slot);
+        for (int area = 0; area < AREAS; area++) {
+            _buffer.putInt(entry(slot, area), 0);
+        }
+        _buffer.force(entry(slot, 0), AREAS * ENTRY_SIZE);
+    }
+
+    /**
+     * Forces everything to disk and closes the file. The store can't be used afterwards.
+     */
+    public synchronized void close() {
+        _buffer.force();
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the area of slot with the newest save whose CRC matches, or -1 if neither area
+     * has one.
+     */
+    private int validArea(int slot) {
+        int newer = sequence(slot, 0) >= sequence(slot, 1) ? 0 : 1;
+        for (int area : new int[] {newer, 1 - newer}) {
+            int entry = entry(slot, area);
+            int length = _buffer.getInt(entry);
+            if (length <= 0 || length > _slotCapacity) {
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(_buffer.slice(area(slot, area), length));
+            if ((int) crc.getValue() == _buffer.getInt(entry + 4)) {
+                return area;
+            }
+        }
+        return -1;
+    }
+
+    private long sequence(int slot, int area) {
+        return _buffer.getLong(entry(slot, area) + 16);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= _slots) {
+            throw new IndexOutOfBoundsException("No slot " + slot + "; there are " + _slots
+                    + ".");
+        }
+    }
+
+    /**
+     * Returns where the index entry of one of slot's areas is in the file.
+     */
+    private int entry(int slot, int area) {
+        checkSlot(slot);
+        return HEADER_SIZE + (slot * AREAS + area) * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns where one of slot's areas starts in the file.
+     */
+    private int area(int slot, int area) {
+        return _dataStart + (slot * AREAS + area) * _slotCapacity;
+    }
+
+    /**
+     * Returns where the first slot starts in a store with the given number of slots.
+     */
+    private static long dataStart(int slots) {
+        long indexEnd = HEADER_SIZE + (long) slots * AREAS * ENTRY_SIZE;
+        return (indexEnd + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+}
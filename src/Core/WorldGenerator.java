@@ -5,6 +5,10 @@ import byow.TileEngine.TETile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import static byow.TileEngine.Tileset.*;
 
 /**
@@ -27,7 +31,21 @@ public class WorldGenerator {
     // Specified maximum room size
     int MAX_ROOM_DIM = 7;
     double P_CREATE_ROOM = 0.01;
+    /* Worlds with at least this many cells have their rooms generated in parallel (see
+    RoomSplitTask). Smaller worlds, which includes every world the game made before, are
+    generated the original way, so their seeds still give the same worlds. The game itself never
+    makes a world this big (chunked games generate theirs a ChunkedWorld.CHUNK_SIZE chunk at a
+    time), so only code that uses a WorldGenerator directly gets here. */
+    static final int PARALLEL_CELLS = 256 * 256;
+    /* RoomSplitTask splits each part of the world only one way, so it has far fewer leaves than
+    generateRoomsHelper, and makes a room in more of them */
+    double P_CREATE_SPLIT_ROOM = 0.3;
+    /* parts of the world smaller than this are split on the thread that's already there */
+    static final int FORK_CELLS = 64 * 64;
+    long _seed;
     Difficulty _difficulty;
+    /* the rooms of the last generated world, kept for hierarchical pathfinding */
+    List<Room> _rooms;
 
     /**
      * Constructor for a WorldGenerator.
@@ -39,6 +57,7 @@ public class WorldGenerator {
     public WorldGenerator(int width, int height, Long seed, Difficulty difficulty) {
         _height = height;
         _width = width;
+        _seed = seed;
         _random = new Random(seed);
         _difficulty = difficulty;
     }
@@ -54,18 +73,38 @@ public class WorldGenerator {
      * @return TETile[][] world
      */
     public TETile[][] generateWorld() {
-        List<Room> roomList = generateRooms();
-        RoomGraph roomGraph = new RoomGraph(roomList, _random);
-        roomGraph.pa(); // should convert roomGraph into an MST in-place;
-        roomGraph.addRandomEdges(2); // Try adding at least two edges in the graph, so we get cycles
-        int[][] worldRep = generateHallways(roomGraph);
-        TETile[][] world = convertToTiles(worldRep);
+        TETile[][] world = convertToTiles(generateLayout());
         addPlayer(world);
         addEnemies(world, _difficulty.CRAWLER_NUM);
         addExit(world);
         return world;
     }
 
+    /**
+     * Generates the rooms and hallways of the world, without the player, enemies and exit.
+     * Used by generateWorld, and by ChunkedWorld for each of its chunks.
+     * @return the int[][] representation of the world (see emptyOutRooms).
+     */
+    int[][] generateLayout() {
+        List<Room> roomList = generateRooms();
+        _rooms = roomList;
+        RoomGraph roomGraph = new RoomGraph(roomList, _random);
+        if (roomList.size() < 2) {
+            // small areas (like chunks) can be unlucky; there's nothing to join
+            return emptyOutRooms(roomGraph);
+        }
+        roomGraph.pa(); // should convert roomGraph into an MST in-place;
+        roomGraph.addRandomEdges(2); // Try adding at least two edges in the graph, so we get cycles
+        return generateHallways(roomGraph);
+    }
+
+    /**
+     * Returns the rooms of the world made by the last call to generateWorld.
+     */
+    public List<Room> getRooms() {
+        return _rooms;
+    }
+
     /**
      * Adds the player into the world by initializing them in the bottom-left available floor tile.
      * This function modifies the TETile array in-place.
@@ -127,6 +166,10 @@ public class WorldGenerator {
      * @return roomList the generated list of rooms.
      */
     private List<Room> generateRooms() {
+        if ((long) _width * _height >= PARALLEL_CELLS) {
+            return ForkJoinPool.commonPool().invoke(new RoomSplitTask(_height, _width, 0, 0,
+                    new SplittableRandom(_seed)));
+        }
         List<Room> result = new ArrayList<>();
         generateRoomsHelper(_height, _width, 0, 0, result);
         return result;
@@ -190,6 +233,86 @@ public class WorldGenerator {
         }
     }
 
+    /**
+     * Splits the world into rooms like generateRoomsHelper, as a fork/join task so that big
+     * worlds are split on all the cores at once. generateRoomsHelper splits a part that's too tall
+     * and too wide both ways, so its parts overlap and the work grows much faster than the world;
+     * here each part is only split along its longer side, so the parts tile the world and the work
+     * is proportional to its area. Each part of the world gets its own random stream, split off its
+     * parent's after the parent has made its own choices, so what's in a part doesn't depend on
+     * which thread generated it or when. The rooms come back in the same order however many
+     * threads there are, so the same seed always gives the same world.
+     */
+    private class RoomSplitTask extends RecursiveTask<List<Room>> {
+        private final int _parentHeight;
+        private final int _parentWidth;
+        private final int _parentX;
+        private final int _parentY;
+        private final SplittableRandom _stream;
+
+        RoomSplitTask(int parentHeight, int parentWidth, int parentX, int parentY,
+                      SplittableRandom stream) {
+            _parentHeight = parentHeight;
+            _parentWidth = parentWidth;
+            _parentX = parentX;
+            _parentY = parentY;
+            _stream = stream;
+        }
+
+        @Override
+        protected List<Room> compute() {
+            List<Room> roomList = new ArrayList<>();
+            // Base case: if parent is too small, do nothing; rooms can't fit inside.
+            if (_parentHeight < MIN_ROOM_DIM + 2 || _parentWidth < MIN_ROOM_DIM + 2) {
+                return roomList;
+            }
+            if (_parentHeight < MAX_ROOM_DIM + 2 && _parentWidth < MAX_ROOM_DIM + 2) {
+                // If width and height are in good range, we can make a room.
+                if (_stream.nextDouble() < P_CREATE_SPLIT_ROOM) {
+                    int roomHeight = _stream.nextInt(MIN_ROOM_DIM, _parentHeight - 1);
+                    int roomWidth = _stream.nextInt(MIN_ROOM_DIM, _parentWidth - 1);
+                    int roomX = _stream.nextInt(_parentX,
+                            _parentWidth - 2 - roomWidth + _parentX + 1);
+                    int roomY = _stream.nextInt(_parentY,
+                            _parentHeight - 2 - roomHeight + _parentY + 1);
+                    roomList.add(new Room(roomHeight, roomWidth, roomX, roomY));
+                }
+                return roomList;
+            }
+            List<RoomSplitTask> children = new ArrayList<>();
+            if (_parentHeight >= MAX_ROOM_DIM + 2
+                    && (_parentHeight >= _parentWidth || _parentWidth < MAX_ROOM_DIM + 2)) {
+                // if too tall and no wider than it is tall, do a horizontal split; top box
+                // first, then bottom box.
+                int topHeight = (int) (_parentHeight * _stream.nextDouble(0.5, 0.7));
+                int bottomHeight = _parentHeight - topHeight;
+                children.add(new RoomSplitTask(topHeight, _parentWidth, _parentX,
+                        _parentY + bottomHeight, _stream.split()));
+                children.add(new RoomSplitTask(bottomHeight, _parentWidth, _parentX, _parentY,
+                        _stream.split()));
+            } else {
+                // otherwise it's too wide, so do a vertical split; left box first, then right box.
+                int rightWidth = (int) (_parentWidth * _stream.nextDouble(0.5, 0.7));
+                int leftWidth = _parentWidth - rightWidth;
+                children.add(new RoomSplitTask(_parentHeight, leftWidth, _parentX, _parentY,
+                        _stream.split()));
+                children.add(new RoomSplitTask(_parentHeight, rightWidth, leftWidth + _parentX,
+                        _parentY, _stream.split()));
+            }
+            if ((long) _parentWidth * _parentHeight >= FORK_CELLS) {
+                ForkJoinTask.invokeAll(children);
+                for (RoomSplitTask child : children) {
+                    roomList.addAll(child.join());
+                }
+            } else {
+                for (RoomSplitTask child : children) {
+                    roomList.addAll(child.compute());
+                }
+            }
+            return roomList;
+        }
+    }
+
     /**
      * Given a roomGraph, generate hallways between room centers,
      * then overlay onto an int array representation
@@ -197,44 +320,58 @@ public class WorldGenerator {
     private int[][] generateHallways(RoomGraph roomGraph) {
         // worldRep represents the rooms in the world
         int[][] worldRep = emptyOutRooms(roomGraph);
-        double[][] edges = roomGraph.getAdjMatrix();
         List<Room> roomList = roomGraph.getRoomList();
+        if (roomGraph.isSparse()) {
+            // big graphs have a list of edges instead of a matrix
+            for (int k = 0; k < roomGraph.edgeCount(); k++) {
+                worldRep = carveHallway(worldRep, roomList.get(roomGraph.edgeFrom(k)),
+                        roomList.get(roomGraph.edgeTo(k)));
+            }
+            return worldRep;
+        }
+        double[][] edges = roomGraph.getAdjMatrix();
         // for each edge in the adjacency matrix, carve out a hallway.
         for (int i = 0; i < edges.length; i++) {
             for (int j = 0; j < edges.length; j++) { // matrix is always square
                 if (edges[i][j] != 0.0) { // an edge exists
+                    worldRep = carveHallway(worldRep, roomList.get(i), roomList.get(j));
+                }
+            }
+        }
+        return worldRep;
+    }
 
-                    // get the rooms to draw a path between
-                    Room startRoom = roomList.get(i);
-                    int[] startCoords = startRoom.getCenter();
-                    Room endRoom = roomList.get(j);
-                    int[] endCoords = endRoom.getCenter();
+    /**
+     * Helper method for generateHallways. Carves out a hallway from the center of startRoom
+     * to the center of endRoom.
+     */
+    private int[][] carveHallway(int[][] worldRep, Room startRoom, Room endRoom) {
+        // get the rooms to draw a path between
+        int[] startCoords = startRoom.getCenter();
+        int[] endCoords = endRoom.getCenter();
 
-                    if (Math.abs(startCoords[0] - endCoords[0]) <= endRoom.getWidth() / 2) {
-                        // carve out vertical corridor from start to end.
-                        worldRep = emptyOutCellsVertical(
-                                worldRep, startCoords[0], startCoords[1], endCoords[1]
-                        );
-                    } else if ((Math.abs(startCoords[1] - endCoords[1])
-                            <= endRoom.getHeight() / 2)) {
-                        // Carve out horizontal corridor from start to end.
-                        worldRep = emptyOutCellsHorizontal(
-                                worldRep, startCoords[1], startCoords[0], endCoords[0]
-                        );
-                    } else {
-                        // carve out L-shaped corridor
-                        // carve out row horizontally from start[0] to end[0] on the start row
-                        worldRep = emptyOutCellsHorizontal(
-                                worldRep, startCoords[1], startCoords[0], endCoords[0]
-                        );
+        if (Math.abs(startCoords[0] - endCoords[0]) <= endRoom.getWidth() / 2) {
+            // carve out vertical corridor from start to end.
+            worldRep = emptyOutCellsVertical(
+                    worldRep, startCoords[0], startCoords[1], endCoords[1]
+            );
+        } else if ((Math.abs(startCoords[1] - endCoords[1])
+                <= endRoom.getHeight() / 2)) {
+            // Carve out horizontal corridor from start to end.
+            worldRep = emptyOutCellsHorizontal(
+                    worldRep, startCoords[1], startCoords[0], endCoords[0]
+            );
+        } else {
+            // carve out L-shaped corridor
+            // carve out row horizontally from start[0] to end[0] on the start row
+            worldRep = emptyOutCellsHorizontal(
+                    worldRep, startCoords[1], startCoords[0], endCoords[0]
+            );
 
-                        // carve out column vertically from start[1] to end[1] on the end column
-                        worldRep = emptyOutCellsVertical(
-                                worldRep, endCoords[0], startCoords[1], endCoords[1]
-                        );
-                    }
-                }
-            }
+            // carve out column vertically from start[1] to end[1] on the end column
+            worldRep = emptyOutCellsVertical(
+                    worldRep, endCoords[0], startCoords[1], endCoords[1]
+            );
         }
         return worldRep;
     }
@@ -0,0 +1,114 @@
+package byow.TileEngine;
+
+import java.io.Serializable;
+
+/**
+ * The part of the world that's shown in the window, for worlds bigger than the window.
+ * The camera is a viewport of a fixed number of tiles, which follows a target (the player) around
+ * the world. It only moves once the target gets within a margin of the viewport's edge, so
+ * walking around inside the middle of the screen doesn't scroll every tile on it, and it never
+ * shows anything past the edges of the world. If the world is smaller than the viewport in some
+ * direction, the camera stays at 0 in that direction.
+ */
+public class Camera implements Serializable {
+    private final int _viewWidth;
+    private final int _viewHeight;
+    private final int _worldWidth;
+    private final int _worldHeight;
+    /* how close (in tiles) the target can get to the edge of the viewport before it scrolls */
+    private final int _marginX;
+    private final int _marginY;
+    /* world coordinates of the bottom left tile of the viewport */
+    private int _left;
+    private int _bottom;
+
+    /**
+     * @param viewWidth width of the viewport in tiles.
+     * @param viewHeight height of the viewport in tiles.
+     * @param worldWidth width of the world in tiles.
+     * @param worldHeight height of the world in tiles.
+     */
+    public Camera(int viewWidth, int viewHeight, int worldWidth, int worldHeight) {
+        _viewWidth = viewWidth;
+        _viewHeight = viewHeight;
+        _worldWidth = worldWidth;
+        _worldHeight = worldHeight;
+        _marginX = viewWidth / 4;
+        _marginY = viewHeight / 4;
+    }
+
+    public int viewWidth() {
+        return _viewWidth;
+    }
+
+    public int viewHeight() {
+        return _viewHeight;
+    }
+
+    /**
+     * Returns the world x coordinate of the leftmost column of the viewport.
+     */
+    public int left() {
+        return _left;
+    }
+
+    /**
+     * Returns the world y coordinate of the bottom row of the viewport.
+     */
+    public int bottom() {
+        return _bottom;
+    }
+
+    /**
+     * Scrolls the viewport so that (x, y) is at least the margin away from its edges, as far as
+     * the edges of the world allow.
+     */
+    public void follow(int x, int y) {
+        _left = scroll(_left, x, _marginX, _viewWidth, _worldWidth);
+        _bottom = scroll(_bottom, y, _marginY, _viewHeight, _worldHeight);
+    }
+
+    /**
+     * Moves the viewport so that (x, y) is in the middle of it, as far as the edges of the world
+     * allow.
+     */
+    public void centreOn(int x, int y) {
+        _left = clamp(x - _viewWidth / 2, _viewWidth, _worldWidth);
+        _bottom = clamp(y - _viewHeight / 2, _viewHeight, _worldHeight);
+    }
+
+    /**
+     * Moves the viewport by (dx, dy) tiles, as far as the edges of the world allow, e.g. because
+     * the world under it was moved the other way and it should stay over the same tiles.
+     */
+    public void shift(int dx, int dy) {
+        _left = clamp(_left + dx, _viewWidth, _worldWidth);
+        _bottom = clamp(_bottom + dy, _viewHeight, _worldHeight);
+    }
+
+    /**
+     * Returns true iff world position (x, y) is in the viewport.
+     */
+    public boolean isVisible(int x, int y) {
+        return x >= _left && x < _left + _viewWidth && y >= _bottom && y < _bottom + _viewHeight;
+    }
+
+    /**
+     * Helper for follow. Works out the new start of the viewport along one axis.
+     */
+    private static int scroll(int start, int target, int margin, int view, int world) {
+        if (target < start + margin) {
+            start = target - margin;
+        } else if (target > start + view - 1 - margin) {
+            start = target - (view - 1 - margin);
+        }
+        return clamp(start, view, world);
+    }
+
+    /**
+     * Keeps the start of the viewport along one axis within the world.
+     */
+    private static int clamp(int start, int view, int world) {
+        return Math.max(0, Math.min(start, world - view));
+    }
+}
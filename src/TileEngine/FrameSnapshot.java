@@ -0,0 +1,122 @@
+package byow.TileEngine;
+
+/**
+ * Everything the render thread needs to draw one frame: the tile at every position on screen (as
+ * it should be seen), whether it's drawn as a path, and the lines of HUD text under the world.
+ * The tiles are the shared ones of a WorldModel, so filling a snapshot only copies references.
+ * A snapshot is the size of the window, not the world; only the part of the world a Camera can
+ * see is copied, so its cost doesn't depend on the size of the world. Positions past the edge of
+ * the world are filled with Tileset.NOTHING.
+ *
+ * Snapshots are owned by one thread at a time. The game thread fills one in and hands it over
+ * with RenderThread.publish; from then on it isn't changed until the render thread is done with
+ * it and it comes back to be filled again.
+ *
+ * A snapshot also remembers which of its tiles are stale, i.e. changed in the world since it was
+ * last filled in (while the other snapshots were being drawn), so filling it in again only copies
+ * those. Only the game thread uses that part, even while the render thread has the snapshot.
+ */
+public class FrameSnapshot {
+    private static final int MAX_HUD_TEXTS = 8;
+
+    final int width;
+    final int height;
+    /* tile at screen position (x, y) is tiles[x * height + y] */
+    final TETile[] tiles;
+    final boolean[] paths;
+    /* HUD text number k is hudText[k], centred at hudX[k] */
+    final String[] hudText = new String[MAX_HUD_TEXTS];
+    final double[] hudX = new double[MAX_HUD_TEXTS];
+    int hudCount;
+    /* the positions whose tiles changed since the frame published before this one, unless
+    redrawAll is set, which means anything could have (e.g. the camera scrolled) */
+    final int[] changed;
+    int changedCount;
+    boolean redrawAll = true;
+    /* set when the frame is published: 1 for the first frame, 2 for the next, ... */
+    long sequence;
+
+    /* only used by the game thread: the positions whose tiles are stale, unless they all are */
+    private final int[] stale;
+    private final boolean[] isStale;
+    private int staleCount;
+    private boolean allStale = true;
+
+    FrameSnapshot(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tiles = new TETile[width * height];
+        paths = new boolean[width * height];
+        changed = new int[width * height];
+        stale = new int[width * height];
+        isStale = new boolean[width * height];
+    }
+
+    /**
+     * Marks the tile at screen position i (x * height + y) as stale.
+     */
+    void markStale(int i) {
+        if (!allStale && !isStale[i]) {
+            isStale[i] = true;
+            stale[staleCount++] = i;
+        }
+    }
+
+    /**
+     * Marks every tile as stale, e.g. because the camera moved.
+     */
+    void markAllStale() {
+        allStale = true;
+    }
+
+    /**
+     * Copies the stale tiles of the window of the world whose bottom left tile is (left, bottom)
+     * into the snapshot, as seen through its field of view, and removes the HUD text.
+     * @param renderPaths choose whether to render paths or not.
+     */
+    void refresh(WorldModel world, int left, int bottom, boolean renderPaths) {
+        if (allStale) {
+            for (int i = 0; i < tiles.length; i++) {
+                copyTile(world, left, bottom, i, renderPaths);
+            }
+        } else {
+            for (int k = 0; k < staleCount; k++) {
+                copyTile(world, left, bottom, stale[k], renderPaths);
+            }
+        }
+        for (int k = 0; k < staleCount; k++) {
+            isStale[stale[k]] = false;
+        }
+        staleCount = 0;
+        allStale = false;
+        hudCount = 0;
+    }
+
+    /**
+     * Copies the tile at screen position i from the window whose bottom left tile is
+     * (left, bottom).
+     */
+    private void copyTile(WorldModel world, int left, int bottom, int i, boolean renderPaths) {
+        int worldX = left + i / height;
+        int worldY = bottom + i % height;
+        TETile tile = Tileset.NOTHING;
+        if (worldX < world.width() && worldY < world.height()) {
+            tile = world.view(worldX, worldY);
+        }
+        tiles[i] = tile;
+        paths[i] = renderPaths && tile.isPath();
+    }
+
+    /**
+     * Adds a line of HUD text, centred at x (in tiles) in the strip under the world. Text past
+     * the first few lines is ignored.
+     */
+    public void addHudText(double x, String text) {
+        if (hudCount == MAX_HUD_TEXTS) {
+            return;
+        }
+        hudX[hudCount] = x;
+        hudText[hudCount] = text;
+        hudCount++;
+    }
+}
@@ -0,0 +1,136 @@
+package byow.TileEngine;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Pre-drawn images of tiles, so that drawing a tile is a single image copy instead of filling a
+ * square and laying out its character with the font every frame.
+ * A sprite is made the first time a (character, fill color, character color) combination is
+ * asked for, drawn the same way TETile.draw does it, and kept from then on. Dark tiles are all
+ * black on black, so they share a handful of sprites no matter what they are.
+ *
+ * Sprites are looked up by the TETile object first, which is what happens for the shared tiles of
+ * a WorldModel, and only by their colors when a tile hasn't been seen before.
+ * Each sprite is kept both as an image, for Graphics2D.drawImage, and as an array of ARGB pixels,
+ * for copying rows straight into an image's pixels.
+ */
+public class GlyphAtlas {
+    /* tiles that aren't shared (e.g. made fresh by colorVariant) would fill the identity cache
+    forever, so it's emptied when it gets this big */
+    private static final int MAX_CACHED_TILES = 4096;
+
+    private final int _tileSize;
+    private final Font _font;
+    /* how many pixels of the screen one pixel of a tile covers, e.g. 2 on a retina display */
+    private final double _scale;
+    /* sprites by tile: [0] is the tile as normally drawn, [1] with its path highlighted */
+    private final IdentityHashMap<TETile, Sprite[]> _byTile = new IdentityHashMap<>();
+    /* sprites by what they look like; see key */
+    private final HashMap<Long, Sprite> _byLook = new HashMap<>();
+
+    /**
+     * A pre-drawn tile.
+     */
+    static class Sprite {
+        /* the tile as an opaque image, scale times as big as the tile */
+        final BufferedImage image;
+        /* the same picture as ARGB pixels, row by row from the top */
+        final int[] pixels;
+
+        Sprite(BufferedImage image) {
+            this.image = image;
+            this.pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
+                    image.getWidth());
+        }
+    }
+
+    /**
+     * @param tileSize the size of a tile in pixels.
+     * @param font the font characters are drawn with.
+     * @param scale the scale of the screen the sprites are drawn onto.
+     */
+    public GlyphAtlas(int tileSize, Font font, double scale) {
+        _tileSize = tileSize;
+        _font = font;
+        _scale = scale;
+    }
+
+    public double scale() {
+        return _scale;
+    }
+
+    /**
+     * Returns the sprite of tile, making it if needed.
+     * @param renderPaths if true, paths are drawn in red, even when dark.
+     */
+    Sprite sprite(TETile tile, boolean renderPaths) {
+        Sprite[] sprites = _byTile.get(tile);
+        if (sprites == null) {
+            if (_byTile.size() >= MAX_CACHED_TILES) {
+                _byTile.clear();
+            }
+            sprites = new Sprite[2];
+            _byTile.put(tile, sprites);
+        }
+        int k = renderPaths ? 1 : 0;
+        if (sprites[k] == null) {
+            Color fill = tile.fillColor(renderPaths);
+            Color glyph = tile.glyphColor(renderPaths);
+            long key = key(tile.character(), fill, glyph);
+            Sprite sprite = _byLook.get(key);
+            if (sprite == null) {
+                sprite = new Sprite(draw(tile.character(), fill, glyph));
+                _byLook.put(key, sprite);
+            }
+            sprites[k] = sprite;
+        }
+        return sprites[k];
+    }
+
+    /**
+     * Returns the number of different sprites made so far.
+     */
+    public int size() {
+        return _byLook.size();
+    }
+
+    /**
+     * Packs a character and two colors into a long: 16 bits for the character, then 24 bits
+     * of RGB for each color. Tiles are opaque, so alpha is left out.
+     */
+    private static long key(char character, Color fill, Color glyph) {
+        return ((long) character << 48) | ((long) (fill.getRGB() & 0xFFFFFF) << 24)
+                | (glyph.getRGB() & 0xFFFFFF);
+    }
+
+    /**
+     * Draws a sprite the same way TETile.draw draws a tile: a filled square, with the character
+     * centred on it.
+     */
+    private BufferedImage draw(char character, Color fill, Color glyph) {
+        int pixels = (int) Math.round(_tileSize * _scale);
+        BufferedImage image = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.scale(_scale, _scale);
+        g.setColor(fill);
+        g.fillRect(0, 0, _tileSize, _tileSize);
+        g.setColor(glyph);
+        g.setFont(_font);
+        FontMetrics metrics = g.getFontMetrics();
+        String text = Character.toString(character);
+        // same placement as StdDraw.text, which centres the text on the middle of the tile
+        g.drawString(text, (float) (_tileSize / 2.0 - metrics.stringWidth(text) / 2.0),
+                (float) (_tileSize / 2.0 + metrics.getDescent()));
+        g.dispose();
+        return image;
+    }
+}
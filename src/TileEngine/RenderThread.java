@@ -0,0 +1,164 @@
+package byow.TileEngine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws frames on a thread of its own, so the game loop never waits for the screen.
+ * Frames are handed over with triple buffering. There are three FrameSnapshots: the game thread
+ * fills in the back one, the render thread draws the front one, and the third is the latest
+ * finished frame waiting in the middle. Publishing a frame swaps the back and middle snapshots,
+ * and the render thread swaps the middle and front ones whenever there's a new frame in the
+ * middle. Both swaps are a single atomic getAndSet, so neither thread ever blocks the other;
+ * if the game publishes faster than frames can be drawn, the frames in between are skipped.
+ *
+ * Frames are filled in from the world's WorldDelta, so only the tiles that changed since a
+ * snapshot was last filled in are copied into it, and everything is only copied when the camera
+ * scrolls or the whole world changes (e.g. the lights are turned on). Each frame also lists the
+ * tiles that changed since the frame before it, so the renderer only has to draw those.
+ *
+ * The render thread is the only one that should use StdDraw while it's running, so stop it
+ * before drawing anything else (e.g. a menu) and start it again afterwards.
+ */
+public class RenderThread {
+    /* set in _state when the middle snapshot is a frame that hasn't been drawn yet */
+    private static final int FRESH = 4;
+
+    private final TERenderer _renderer;
+    private final FrameSnapshot[] _snapshots = new FrameSnapshot[3];
+    /* the number of the middle snapshot, plus FRESH if it's new */
+    private final AtomicInteger _state = new AtomicInteger(1);
+    /* the number of the game thread's snapshot; only the game thread uses it */
+    private int _back = 0;
+    /* the number of frames published so far; only the game thread uses it */
+    private long _published;
+    /* what the last frame was filled in from; only the game thread uses these */
+    private WorldModel _lastWorld;
+    private int _lastLeft;
+    private int _lastBottom;
+    private boolean _lastRenderPaths;
+    /* the number of the render thread's snapshot; only the render thread uses it */
+    private int _front = 2;
+
+    private volatile boolean _running;
+    private Thread _thread;
+
+    /**
+     * @param renderer the renderer to draw with; it should already be initialized.
+     * @param width width of the world in tiles.
+     * @param height height of the world in tiles.
+     */
+    public RenderThread(TERenderer renderer, int width, int height) {
+        _renderer = renderer;
+        for (int i = 0; i < _snapshots.length; i++) {
+            _snapshots[i] = new FrameSnapshot(width, height);
+        }
+    }
+
+    /**
+     * Fills in the next frame with the part of the world the camera can see, as seen through its
+     * field of view, and returns it so HUD text can be added. Call publish when it's done.
+     * @param delta every change to the world since the last frame was filled in, e.g.
+     * Game.getDelta if the game ticks at most once between frames.
+     * @param renderPaths choose whether to render paths or not.
+     */
+    public FrameSnapshot fillFrame(WorldModel world, WorldDelta delta, Camera camera,
+                                   boolean renderPaths) {
+        FrameSnapshot frame = _snapshots[_back];
+        int left = camera.left();
+        int bottom = camera.bottom();
+        frame.changedCount = 0;
+        frame.redrawAll = delta.isFull() || world != _lastWorld || left != _lastLeft
+                || bottom != _lastBottom || renderPaths != _lastRenderPaths;
+        if (frame.redrawAll) {
+            for (FrameSnapshot snapshot : _snapshots) {
+                snapshot.markAllStale();
+            }
+        } else {
+            for (int k = 0; k < delta.size(); k++) {
+                int x = delta.x(k) - left;
+                int y = delta.y(k) - bottom;
+                if (x < 0 || y < 0 || x >= frame.width || y >= frame.height) {
+                    continue; // off screen
+                }
+                for (FrameSnapshot snapshot : _snapshots) {
+                    snapshot.markStale(x * frame.height + y);
+                }
+                frame.changed[frame.changedCount++] = x * frame.height + y;
+            }
+        }
+        frame.refresh(world, left, bottom, renderPaths);
+        _lastWorld = world;
+        _lastLeft = left;
+        _lastBottom = bottom;
+        _lastRenderPaths = renderPaths;
+        return frame;
+    }
+
+    /**
+     * Hands the frame from fillFrame to the render thread, replacing any frame it hasn't drawn
+     * yet.
+     */
+    public void publish() {
+        _snapshots[_back].sequence = ++_published;
+        _back = _state.getAndSet(_back | FRESH) & 3;
+        Thread thread = _thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Starts drawing published frames, if it isn't already.
+     */
+    public void start() {
+        if (_thread != null) {
+            return;
+        }
+        _running = true;
+        _thread = new Thread(this::drawFrames, "render");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Draws the last published frame, if it hasn't been drawn yet, and stops the render thread.
+     * Returns once the thread has finished, so StdDraw can be used again straight away.
+     */
+    public void stop() {
+        if (_thread == null) {
+            return;
+        }
+        _running = false;
+        LockSupport.unpark(_thread);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                _thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        _thread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the render thread. Sleeps until a frame is published, then draws the latest one.
+     */
+    private void drawFrames() {
+        while (true) {
+            if ((_state.get() & FRESH) != 0) {
+                _front = _state.getAndSet(_front) & 3;
+                _renderer.renderSnapshot(_snapshots[_front]);
+            } else if (!_running) {
+                return;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
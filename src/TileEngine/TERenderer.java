@@ -4,19 +4,47 @@ import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.reflect.Field;
 
 /**
  * Utility class for rendering tiles. You do not need to modify this file. You're welcome
  * to, but be careful. We strongly recommend getting everything else working before
  * messing with this renderer, unless you're trying to do something fancy like
  * allowing scrolling of the screen or tracking the avatar or something similar.
+ *
+ * Tiles are drawn by copying pre-drawn images from a GlyphAtlas straight into StdDraw's back
+ * buffer: row by row into its pixels when the buffer is a plain int image at the canvas size, and
+ * with drawImage otherwise (e.g. on a retina display, where the buffer is scaled). StdDraw
+ * doesn't have a way to draw an image from memory, so the back buffer is found by reflection; if
+ * that fails, tiles are drawn with StdDraw like before.
  */
 public class TERenderer {
     private static final int TILE_SIZE = 16;
+    private static final Font HUD_FONT = new Font("Narnia", Font.BOLD, 12);
+    /* StdDraw's back buffer fields (its Graphics2D, and the image it draws on), or null if they
+    can't be reached */
+    private static final Field BACK_BUFFER = findField("offscreen");
+    private static final Field BACK_BUFFER_IMAGE = findField("offscreenImage");
     private int width;
     private int height;
     private int xOffset;
     private int yOffset;
+    /* what the last incremental frame drew at each tile (indexed by x * height + y), and whether
+    it was drawn as a path; null if the screen has to be drawn from scratch */
+    private TETile[] lastFrame;
+    private boolean[] lastPaths;
+    /* the sequence number of the last FrameSnapshot drawn */
+    private long lastSequence;
+    /* where tiles are copied to for the current frame; null to draw them with StdDraw */
+    private Graphics2D backBuffer;
+    /* the back buffer's pixels, and the length of a row of them; null if tiles can't be copied
+    into the pixels directly */
+    private int[] backBufferPixels;
+    private int backBufferWidth;
+    private GlyphAtlas atlas;
 
     /**
      * Same functionality as the other initialization method. The only difference is that the xOff
@@ -32,6 +60,7 @@ public class TERenderer {
         this.height = h;
         this.xOffset = xOff;
         this.yOffset = yOff;
+        invalidate();
         StdDraw.setCanvasSize(width * TILE_SIZE, height * TILE_SIZE);
         Font font = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
         StdDraw.setFont(font);
@@ -44,6 +73,14 @@ public class TERenderer {
         StdDraw.show();
     }
 
+    /**
+     * Makes the next incremental frame redraw every tile, e.g. because something else was drawn
+     * over the world.
+     */
+    public void invalidate() {
+        lastFrame = null;
+    }
+
     /**
      * Set default parameter for tile drawing.
      */
@@ -93,8 +130,11 @@ public class TERenderer {
      * @param renderPaths choose whether to render paths or not.
      */
     public void renderFrame(TETile[][] world, boolean renderPaths) {
-        int numXTiles = world.length;
-        int numYTiles = world[0].length;
+        invalidate();
+        prepareBackBuffer();
+        // tiles that don't fit in the window aren't drawn
+        int numXTiles = Math.min(world.length, width - xOffset);
+        int numYTiles = Math.min(world[0].length, height - yOffset);
         StdDraw.clear(new Color(0, 0, 0));
         for (int x = 0; x < numXTiles; x += 1) {
             for (int y = 0; y < numYTiles; y += 1) {
@@ -102,13 +142,184 @@ public class TERenderer {
                     throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
                             + " is null.");
                 }
-                if (renderPaths && world[x][y].isPath()) {
-                    world[x][y].draw(x + xOffset, y + yOffset, true);
-                } else {
-                    world[x][y].draw(x + xOffset, y + yOffset, false);
+                drawTile(world[x][y], x, y, renderPaths && world[x][y].isPath());
+            }
+        }
+        StdDraw.show();
+    }
+
+    /**
+     * Same as the other renderFrame method, but draws a WorldModel instead, using the tiles as
+     * they should be seen (i.e. with the model's field of view lit up).
+     * @param world the world to render
+     * @param renderPaths choose whether to render paths or not.
+     */
+    public void renderFrame(WorldModel world, boolean renderPaths) {
+        invalidate();
+        prepareBackBuffer();
+        // tiles that don't fit in the window aren't drawn
+        int numXTiles = Math.min(world.width(), width - xOffset);
+        int numYTiles = Math.min(world.height(), height - yOffset);
+        StdDraw.clear(new Color(0, 0, 0));
+        for (int x = 0; x < numXTiles; x += 1) {
+            for (int y = 0; y < numYTiles; y += 1) {
+                TETile tile = world.view(x, y);
+                drawTile(tile, x, y, renderPaths && tile.isPath());
+            }
+        }
+        StdDraw.show();
+    }
+
+    /**
+     * Draws a FrameSnapshot, then clears the strip under the world (the bottom yOffset tiles) and
+     * draws the snapshot's HUD text in it. This is what the RenderThread draws frames with.
+     * The screen isn't cleared: only the tiles that look different from the last time they were
+     * drawn are redrawn. If the last snapshot drawn was the frame just before this one, only the
+     * tiles the snapshot lists as changed are looked at. Otherwise (the first frame, after
+     * initialize or invalidate, when the camera scrolled, or when frames in between were skipped)
+     * every tile on screen is compared with what was drawn last.
+     * Nothing else should draw over the world between calls, or it won't be drawn over again.
+     * @param frame the frame to render
+     */
+    public void renderSnapshot(FrameSnapshot frame) {
+        setDefaultParams();
+        boolean redrawAll = beginIncrementalFrame(frame.tiles.length);
+        if (redrawAll || frame.redrawAll || frame.sequence != lastSequence + 1) {
+            for (int x = 0; x < frame.width; x += 1) {
+                for (int y = 0; y < frame.height; y += 1) {
+                    int i = x * frame.height + y;
+                    drawIfChanged(frame.tiles[i], x, y, i, frame.paths[i], redrawAll);
                 }
             }
+        } else {
+            for (int k = 0; k < frame.changedCount; k++) {
+                int i = frame.changed[k];
+                drawIfChanged(frame.tiles[i], i / frame.height, i % frame.height, i,
+                        frame.paths[i], false);
+            }
+        }
+        lastSequence = frame.sequence;
+        if (yOffset > 0) {
+            StdDraw.setPenColor(Color.BLACK);
+            StdDraw.filledRectangle(width / 2.0, yOffset / 2.0, width / 2.0, yOffset / 2.0);
+            StdDraw.setFont(HUD_FONT);
+            StdDraw.setPenColor(Color.WHITE);
+            for (int k = 0; k < frame.hudCount; k++) {
+                StdDraw.text(frame.hudX[k], yOffset / 2.0, frame.hudText[k]);
+            }
         }
         StdDraw.show();
     }
+
+    /**
+     * Gets ready to draw an incremental frame of the given number of tiles, clearing the screen
+     * if everything has to be drawn again.
+     * @return true iff every tile has to be drawn.
+     */
+    private boolean beginIncrementalFrame(int tiles) {
+        prepareBackBuffer();
+        boolean redrawAll = lastFrame == null || lastFrame.length != tiles;
+        if (redrawAll) {
+            lastFrame = new TETile[tiles];
+            lastPaths = new boolean[tiles];
+            StdDraw.clear(new Color(0, 0, 0));
+        }
+        return redrawAll;
+    }
+
+    /**
+     * Draws tile at world position (x, y) unless the last incremental frame drew it the same way.
+     * @param i the index of (x, y) in lastFrame.
+     */
+    private void drawIfChanged(TETile tile, int x, int y, int i, boolean path,
+                               boolean redrawAll) {
+        if (!redrawAll && lastPaths[i] == path && tile.looksLike(lastFrame[i])) {
+            return;
+        }
+        drawTile(tile, x, y, path);
+        lastFrame[i] = tile;
+        lastPaths[i] = path;
+    }
+
+    /**
+     * Draws tile at world position (x, y), from the atlas if possible.
+     * @param renderPaths if true, paths are drawn in red, even when dark.
+     */
+    private void drawTile(TETile tile, int x, int y, boolean renderPaths) {
+        if (backBuffer == null || tile.hasImage()) {
+            tile.draw(x + xOffset, y + yOffset, renderPaths);
+            return;
+        }
+        // StdDraw's y axis points up, but the buffer's points down
+        int pixelX = (x + xOffset) * TILE_SIZE;
+        int pixelY = (height - (y + yOffset) - 1) * TILE_SIZE;
+        GlyphAtlas.Sprite sprite = atlas.sprite(tile, renderPaths);
+        if (backBufferPixels == null) {
+            backBuffer.drawImage(sprite.image, pixelX, pixelY, TILE_SIZE, TILE_SIZE, null);
+            return;
+        }
+        if (pixelX < 0 || pixelY < 0 || pixelX + TILE_SIZE > backBufferWidth
+                || (pixelY + TILE_SIZE) * backBufferWidth > backBufferPixels.length) {
+            return; // off the canvas
+        }
+        int offset = pixelY * backBufferWidth + pixelX;
+        for (int row = 0; row < TILE_SIZE; row++) {
+            System.arraycopy(sprite.pixels, row * TILE_SIZE, backBufferPixels,
+                    offset + row * backBufferWidth, TILE_SIZE);
+        }
+    }
+
+    /**
+     * Looks up StdDraw's back buffer for this frame, since StdDraw makes a new one whenever the
+     * canvas size changes, and makes a new atlas if the buffer's scale has changed.
+     */
+    private void prepareBackBuffer() {
+        backBuffer = null;
+        backBufferPixels = null;
+        if (BACK_BUFFER == null) {
+            return;
+        }
+        Object image;
+        try {
+            Object buffer = BACK_BUFFER.get(null);
+            if (buffer instanceof Graphics2D) {
+                backBuffer = (Graphics2D) buffer;
+            }
+            image = BACK_BUFFER_IMAGE == null ? null : BACK_BUFFER_IMAGE.get(null);
+        } catch (IllegalAccessException e) {
+            backBuffer = null;
+            return;
+        }
+        if (backBuffer == null) {
+            return;
+        }
+        if (image instanceof BufferedImage && backBuffer.getTransform().isIdentity()) {
+            BufferedImage buffer = (BufferedImage) image;
+            int type = buffer.getType();
+            if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+                    && buffer.getRaster().getDataBuffer() instanceof DataBufferInt) {
+                backBufferPixels = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+                backBufferWidth = buffer.getWidth();
+            }
+        }
+        double scale = backBuffer.getTransform().getScaleX();
+        if (atlas == null || atlas.scale() != scale) {
+            atlas = new GlyphAtlas(TILE_SIZE, new Font("Monaco", Font.BOLD, TILE_SIZE - 2),
+                    scale);
+        }
+    }
+
+    /**
+     * Returns one of StdDraw's private fields, or null if this version of StdDraw doesn't have it
+     * or it can't be made accessible.
+     */
+    private static Field findField(String name) {
+        try {
+            Field field = StdDraw.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
 }
@@ -6,6 +6,7 @@ import edu.princeton.cs.algs4.StdDraw;
 import java.awt.*;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Random;
 
 /**
@@ -131,24 +132,44 @@ public class TETile implements Serializable {
             }
         }
 
+        StdDraw.setPenColor(fillColor(renderPaths));
+        StdDraw.filledSquare(x + 0.5, y + 0.5, 0.5);
+        StdDraw.setPenColor(glyphColor(renderPaths));
+        StdDraw.text(x + 0.5, y + 0.5, Character.toString(character()));
+    }
+
+    /**
+     * Returns the color the tile's square is filled with.
+     * @param renderPaths if true, paths are drawn in red, even when dark.
+     */
+    Color fillColor(boolean renderPaths) {
         /* render paths, then dark tiles, then normal tiles */
         if (renderPaths && this.isPath && character != '@' && character != '░') {
-            StdDraw.setPenColor(Color.red);
+            return Color.red;
         } else if (this.isDark) {
-            StdDraw.setPenColor(Color.black);
-        } else  {
-            StdDraw.setPenColor(backgroundColor);
+            return Color.black;
         }
+        return backgroundColor;
+    }
 
-        StdDraw.filledSquare(x + 0.5, y + 0.5, 0.5);
+    /**
+     * Returns the color the tile's character is drawn in.
+     * @param renderPaths if true, paths are drawn in red, even when dark.
+     */
+    Color glyphColor(boolean renderPaths) {
         if (renderPaths && this.isPath) {
-            StdDraw.setPenColor(Color.red);
+            return Color.red;
         } else if (this.isDark) {
-            StdDraw.setPenColor(Color.black);
-        } else {
-            StdDraw.setPenColor(textColor);
+            return Color.black;
         }
-        StdDraw.text(x + 0.5, y + 0.5, Character.toString(character()));
+        return textColor;
+    }
+
+    /**
+     * Returns true iff the tile is drawn from an image file rather than from its character.
+     */
+    boolean hasImage() {
+        return filepath != null;
     }
 
     /** Character representation of the tile. Used for drawing in text mode.
@@ -273,6 +294,21 @@ public class TETile implements Serializable {
                 backgroundColor, description, filepath, isDark, false);
     }
 
+    /**
+     * Returns true iff this tile is drawn exactly like other: same character, colors, image,
+     * and dark and path flags. Unlike equals, this looks at more than the character.
+     */
+    public boolean looksLike(TETile other) {
+        if (other == this) {
+            return true;
+        }
+        return other != null && other.character == character
+                && other.textColor.equals(textColor)
+                && other.backgroundColor.equals(backgroundColor)
+                && Objects.equals(other.filepath, filepath)
+                && other.isDark == isDark && other.isPath == isPath;
+    }
+
     /**
      * Returns true if the current tile is dark.
      */
@@ -0,0 +1,105 @@
+package byow.TileEngine;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The set of cells of a WorldModel that changed since the delta was last cleared.
+ * The model adds a cell every time its tile, dark flag, path flag or field of view changes, so
+ * whoever reads the delta (the renderer, a save journal, ...) only has to look at the cells in it,
+ * through WorldModel.view, instead of the whole world.
+ *
+ * Each cell is only listed once; a bit per cell remembers which ones are already in the list.
+ * Changes that touch every cell, like turning the lights on, don't list anything and make the
+ * delta full instead, which means "assume everything changed".
+ */
+public class WorldDelta implements Serializable {
+    private final int _height;
+    /* one bit per cell; a set bit means the cell is in _cells */
+    private final long[] _listed;
+    /* the changed cells, as flat indices, in the order they first changed */
+    private int[] _cells = new int[64];
+    private int _size;
+    private boolean _full;
+
+    WorldDelta(int width, int height) {
+        _height = height;
+        _listed = new long[(width * height + 63) / 64];
+    }
+
+    /**
+     * Returns the number of changed cells. This is 0 if the delta is full.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns true iff everything should be treated as changed.
+     */
+    public boolean isFull() {
+        return _full;
+    }
+
+    /**
+     * Returns true iff nothing changed.
+     */
+    public boolean isEmpty() {
+        return _size == 0 && !_full;
+    }
+
+    /**
+     * Returns the flat index (x * height + y) of the kth changed cell.
+     */
+    public int cell(int k) {
+        return _cells[k];
+    }
+
+    /**
+     * Returns the x coordinate of the kth changed cell.
+     */
+    public int x(int k) {
+        return _cells[k] / _height;
+    }
+
+    /**
+     * Returns the y coordinate of the kth changed cell.
+     */
+    public int y(int k) {
+        return _cells[k] % _height;
+    }
+
+    /**
+     * Forgets every change. Only the listed cells are touched.
+     */
+    public void clear() {
+        for (int k = 0; k < _size; k++) {
+            int i = _cells[k];
+            _listed[i >>> 6] &= ~(1L << i);
+        }
+        _size = 0;
+        _full = false;
+    }
+
+    /**
+     * Adds cell i to the delta, unless it's already there or the delta is full.
+     */
+    void add(int i) {
+        if (_full || (_listed[i >>> 6] & (1L << i)) != 0) {
+            return;
+        }
+        _listed[i >>> 6] |= 1L << i;
+        if (_size == _cells.length) {
+            _cells = Arrays.copyOf(_cells, _size * 2);
+        }
+        _cells[_size++] = i;
+    }
+
+    /**
+     * Marks every cell as changed. The list is dropped, since it no longer matters.
+     */
+    void markFull() {
+        clear();
+        _full = true;
+    }
+}
@@ -0,0 +1,511 @@
+package byow.TileEngine;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compact representation of a world, as an alternative to a TETile[][].
+ * Every cell stores a one byte tile ID, which indexes into a palette of the distinct tiles the
+ * world was made from (usually just the ones in Tileset). Whether a cell is dark and whether it's
+ * on an enemy's path are kept separately as bit planes, one bit per cell, so lighting a tile or
+ * marking a path only flips a bit instead of making a new TETile.
+ *
+ * For each palette tile, the four dark/path versions of it are made once, when the tile is added
+ * to the palette, so reading a cell back as a TETile never allocates either.
+ *
+ * The model can also have a field of view: a diamond around a centre cell whose tiles are read
+ * with their dark bit flipped, like the lit area around the player when the lights are off.
+ * Cells are indexed the same way as GridPathfinder, by x * height + y.
+ *
+ * Every change to how a cell looks is recorded in the model's WorldDelta, until someone clears it.
+ *
+ * A model can also remember its cells as they were at some point (markBaseline), e.g. when the
+ * world was generated, and keeps track of which cells were changed since then, so the cells that
+ * differ from the baseline can be found without comparing every cell (see nextChangedCell).
+ */
+public class WorldModel implements Serializable {
+    /* a palette can't have more tiles than a byte can tell apart */
+    private static final int MAX_PALETTE = 256;
+    private static final int DARK = 1;
+    private static final int PATH = 2;
+
+    private final int _width;
+    private final int _height;
+    /* palette ID of each cell, read as an unsigned byte */
+    private final byte[] _ids;
+    /* one bit per cell; a set bit means the cell is dark */
+    private final long[] _dark;
+    /* one bit per cell; a set bit means the cell is on an enemy's path */
+    private final long[] _path;
+    /* the cells whose path bit is set, so clearing the paths only touches those cells; this
+    grows while the first few paths are marked and is then reused */
+    private int[] _pathCells = new int[64];
+    private int _pathCount;
+
+    /* the distinct tiles of the world, as they were added */
+    private TETile[] _palette = new TETile[8];
+    /* _variants[id * 4 + (dark ? DARK : 0) + (path ? PATH : 0)] is palette tile id with those
+    flags */
+    private TETile[] _variants = new TETile[32];
+    private int _paletteSize;
+
+    /* field of view; cells within _fovRadius of the centre (apart from the centre itself) are
+    read with their dark bit flipped. A negative radius means there is no field of view. */
+    private int _fovX;
+    private int _fovY;
+    private int _fovRadius = -1;
+
+    /* the cells that changed since the delta was last cleared */
+    private final WorldDelta _delta;
+
+    /* palette IDs and dark bits of the cells when markBaseline was called; null before that */
+    private byte[] _baseIds;
+    private long[] _baseDark;
+    /* one bit per cell; a set bit means the cell's tile or dark flag was set since the baseline,
+    so it might not match it any more */
+    private long[] _touched;
+    /* true iff flipAllDark was called an odd number of times since the baseline */
+    private boolean _allFlipped;
+    private char _flipExcept;
+
+    /**
+     * Makes a model of the given world. The dark and path bits of each cell are taken from its
+     * tile.
+     * @param world the world to copy; it is not kept.
+     */
+    public WorldModel(TETile[][] world) {
+        _width = world.length;
+        _height = world[0].length;
+        _ids = new byte[_width * _height];
+        _dark = new long[(_width * _height + 63) / 64];
+        _path = new long[(_width * _height + 63) / 64];
+        _delta = new WorldDelta(_width, _height);
+        for (int x = 0; x < _width; x++) {
+            for (int y = 0; y < _height; y++) {
+                if (world[x][y] == null) {
+                    throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
+                            + " is null.");
+                }
+                set(x, y, world[x][y]);
+            }
+        }
+        _delta.markFull(); // nothing has been drawn yet
+    }
+
+    public int width() {
+        return _width;
+    }
+
+    public int height() {
+        return _height;
+    }
+
+    /**
+     * Returns the flat index of the cell at (x, y).
+     */
+    public int index(int x, int y) {
+        return x * _height + y;
+    }
+
+    /**
+     * Returns the cells that changed since the delta was last cleared. The delta belongs to the
+     * model; clear it once the changes have been dealt with.
+     */
+    public WorldDelta delta() {
+        return _delta;
+    }
+
+    /**
+     * Returns the character of the tile at (x, y).
+     */
+    public char character(int x, int y) {
+        return _palette[_ids[index(x, y)] & 0xFF].character();
+    }
+
+    /**
+     * Returns the tile at (x, y), with the cell's dark and path flags. The field of view is
+     * ignored.
+     */
+    public TETile tile(int x, int y) {
+        int i = index(x, y);
+        return variant(_ids[i] & 0xFF, getBit(_dark, i), getBit(_path, i));
+    }
+
+    /**
+     * Returns the tile at (x, y) as it should be drawn, i.e. with its dark flag flipped if it's
+     * in the field of view.
+     */
+    public TETile view(int x, int y) {
+        int i = index(x, y);
+        return variant(_ids[i] & 0xFF, getBit(_dark, i) != inFieldOfView(x, y),
+                getBit(_path, i));
+    }
+
+    /**
+     * Puts tile at (x, y), taking the cell's dark and path flags from the tile.
+     */
+    public void set(int x, int y, TETile tile) {
+        int i = index(x, y);
+        int before = state(i);
+        touch(i);
+        _ids[i] = (byte) intern(tile);
+        setBit(_dark, i, tile.isDark());
+        if (tile.isPath()) {
+            markPath(x, y);
+        } else {
+            setBit(_path, i, false);
+        }
+        if (state(i) != before) {
+            _delta.add(i);
+        }
+    }
+
+    /**
+     * Copies the tile and dark flag of (fromX, fromY) to (toX, toY). The destination is not left
+     * on a path, like TETile.copyOfNotPath.
+     */
+    public void copyCell(int fromX, int fromY, int toX, int toY) {
+        int from = index(fromX, fromY);
+        int to = index(toX, toY);
+        int before = state(to);
+        touch(to);
+        _ids[to] = _ids[from];
+        setBit(_dark, to, getBit(_dark, from));
+        setBit(_path, to, false);
+        if (state(to) != before) {
+            _delta.add(to);
+        }
+    }
+
+    public boolean isDark(int x, int y) {
+        return getBit(_dark, index(x, y));
+    }
+
+    /**
+     * Flips the dark flag of (x, y).
+     */
+    public void flipDark(int x, int y) {
+        int i = index(x, y);
+        touch(i);
+        _dark[i >>> 6] ^= 1L << i;
+        _delta.add(i);
+    }
+
+    /**
+     * Flips the dark flag of every cell, apart from cells holding a tile with the given character.
+     * The baseline (if there is one) assumes except is the same every time.
+     */
+    public void flipAllDark(char except) {
+        _allFlipped = !_allFlipped;
+        _flipExcept = except;
+        int size = _width * _height;
+        for (int w = 0; w < _dark.length; w++) {
+            _dark[w] = ~_dark[w];
+        }
+        if ((size & 63) != 0) {
+            _dark[_dark.length - 1] &= (1L << size) - 1; // keep the bits past the end clear
+        }
+        for (int i = 0; i < size; i++) {
+            if (_palette[_ids[i] & 0xFF].character() == except) {
+                _dark[i >>> 6] ^= 1L << i;
+            }
+        }
+        _delta.markFull();
+    }
+
+    public boolean isPath(int x, int y) {
+        return getBit(_path, index(x, y));
+    }
+
+    /**
+     * Marks (x, y) as being on an enemy's path.
+     */
+    public void markPath(int x, int y) {
+        int i = index(x, y);
+        if (getBit(_path, i)) {
+            return;
+        }
+        _path[i >>> 6] |= 1L << i;
+        _delta.add(i);
+        if (_pathCount == _pathCells.length) {
+            _pathCells = Arrays.copyOf(_pathCells, _pathCount * 2);
+        }
+        _pathCells[_pathCount++] = i;
+    }
+
+    /**
+     * Clears every path mark in the world. Only the cells that were marked are touched.
+     */
+    public void clearPaths() {
+        for (int k = 0; k < _pathCount; k++) {
+            int i = _pathCells[k];
+            if (getBit(_path, i)) {
+                _path[i >>> 6] &= ~(1L << i);
+                _delta.add(i);
+            }
+        }
+        _pathCount = 0;
+    }
+
+    /**
+     * Sets the field of view to the diamond of the given radius around (x, y).
+     */
+    public void setFieldOfView(int x, int y, int radius) {
+        if (x == _fovX && y == _fovY && radius == _fovRadius) {
+            return;
+        }
+        int oldX = _fovX;
+        int oldY = _fovY;
+        int oldRadius = _fovRadius;
+        _fovX = x;
+        _fovY = y;
+        _fovRadius = radius;
+        addFieldOfViewChanges(oldX, oldY, oldRadius);
+    }
+
+    /**
+     * Removes the field of view, e.g. because the lights are on.
+     */
+    public void clearFieldOfView() {
+        setFieldOfView(_fovX, _fovY, -1);
+    }
+
+    /**
+     * Returns true iff (x, y) is in the field of view. The centre itself never is.
+     */
+    public boolean inFieldOfView(int x, int y) {
+        if (_fovRadius < 0 || (x == _fovX && y == _fovY)) {
+            return false;
+        }
+        return Math.abs(x - _fovX) + Math.abs(y - _fovY) <= _fovRadius;
+    }
+
+    /**
+     * Returns the palette ID and dark flag of cell i packed into one int, as ID * 2 + 1 if it's
+     * dark. Two models made from the same world have the same palette, so their cells can be
+     * compared this way, e.g. to save only the cells that changed.
+     */
+    public int packedCell(int i) {
+        return ((_ids[i] & 0xFF) << 1) | (getBit(_dark, i) ? 1 : 0);
+    }
+
+    /**
+     * Sets the palette ID and dark flag of cell i from a packedCell value. The cell is left off
+     * any path.
+     */
+    public void setPackedCell(int i, int packed) {
+        if ((packed >>> 1) >= _paletteSize) {
+            throw new IllegalArgumentException("No tile with ID " + (packed >>> 1)
+                    + " in the palette.");
+        }
+        int before = state(i);
+        touch(i);
+        _ids[i] = (byte) (packed >>> 1);
+        setBit(_dark, i, (packed & 1) != 0);
+        setBit(_path, i, false);
+        if (state(i) != before) {
+            _delta.add(i);
+        }
+    }
+
+    /**
+     * Remembers every cell as it is now, as the baseline that nextChangedCell compares against.
+     */
+    public void markBaseline() {
+        _baseIds = _ids.clone();
+        _baseDark = _dark.clone();
+        _touched = new long[_dark.length];
+        _allFlipped = false;
+    }
+
+    /**
+     * Returns true iff markBaseline has been called.
+     */
+    public boolean hasBaseline() {
+        return _baseIds != null;
+    }
+
+    /**
+     * Returns what packedCell(i) would be if cell i hadn't been changed since the baseline,
+     * apart from by flipAllDark.
+     */
+    public int basePackedCell(int i) {
+        int id = _baseIds[i] & 0xFF;
+        boolean dark = getBit(_baseDark, i);
+        if (_allFlipped && _palette[id].character() != _flipExcept) {
+            dark = !dark;
+        }
+        return (id << 1) | (dark ? 1 : 0);
+    }
+
+    /**
+     * Returns the index of the first cell from from onwards whose packedCell differs from its
+     * basePackedCell, or -1 if there isn't one. Only the cells changed since the baseline are
+     * compared, so going through every changed cell takes time in proportion to their number
+     * (plus a word per 64 cells).
+     */
+    public int nextChangedCell(int from) {
+        int size = _width * _height;
+        if (from >= size) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = _touched[w] & (-1L << from);
+        while (true) {
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (packedCell(i) != basePackedCell(i)) {
+                    return i;
+                }
+                word &= word - 1;
+            }
+            w++;
+            if (w == _touched.length) {
+                return -1;
+            }
+            word = _touched[w];
+        }
+    }
+
+    /**
+     * Returns the number of entries in the list of path cells. Cells can be listed more than
+     * once, and can be listed after they've left the path, so check isPath.
+     */
+    public int pathListSize() {
+        return _pathCount;
+    }
+
+    /**
+     * Returns the flat index of the kth entry in the list of path cells.
+     */
+    public int pathListCell(int k) {
+        return _pathCells[k];
+    }
+
+    /**
+     * Returns the number of distinct tiles in the palette.
+     */
+    public int paletteSize() {
+        return _paletteSize;
+    }
+
+    /**
+     * Returns the palette tile with the given ID.
+     */
+    public TETile paletteTile(int id) {
+        return _palette[id];
+    }
+
+    /**
+     * Returns the world as a TETile[][] of the tiles as they should be drawn. Only the array is
+     * new; the tiles are the model's shared ones.
+     */
+    public TETile[][] toTiles() {
+        TETile[][] tiles = new TETile[_width][_height];
+        for (int x = 0; x < _width; x++) {
+            for (int y = 0; y < _height; y++) {
+                tiles[x][y] = view(x, y);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the palette ID of tile, adding it to the palette if it isn't there yet. Tiles are
+     * matched by reference first, then by character and description, since tiles loaded from a
+     * save are copies of the ones in Tileset.
+     */
+    private int intern(TETile tile) {
+        for (int id = 0; id < _paletteSize; id++) {
+            if (_palette[id] == tile) {
+                return id;
+            }
+        }
+        for (int id = 0; id < _paletteSize; id++) {
+            if (_palette[id].character() == tile.character()
+                    && _palette[id].description().equals(tile.description())) {
+                return id;
+            }
+        }
+        if (_paletteSize == MAX_PALETTE) {
+            throw new IllegalArgumentException("World has more than " + MAX_PALETTE
+                    + " different tiles.");
+        }
+        if (_paletteSize == _palette.length) {
+            _palette = Arrays.copyOf(_palette, _paletteSize * 2);
+            _variants = Arrays.copyOf(_variants, _paletteSize * 8);
+        }
+        int id = _paletteSize++;
+        _palette[id] = tile;
+        // the tile itself stands in for its own flags, so Tileset tiles read back as themselves
+        TETile clean = tile.isPath() ? tile.copyOfNotPath() : tile;
+        TETile flipped = clean.copyOfDarkFlipped();
+        TETile lit = clean.isDark() ? flipped : clean;
+        TETile dark = clean.isDark() ? clean : flipped;
+        _variants[id * 4] = lit;
+        _variants[id * 4 + DARK] = dark;
+        _variants[id * 4 + PATH] = lit.copyOfPath();
+        _variants[id * 4 + DARK + PATH] = dark.copyOfPath();
+        return id;
+    }
+
+    /**
+     * Adds the cells that were in the old field of view but aren't in the current one, or the
+     * other way around, to the delta.
+     */
+    private void addFieldOfViewChanges(int oldX, int oldY, int oldRadius) {
+        addDiamond(oldX, oldY, oldRadius, oldX, oldY, oldRadius);
+        addDiamond(_fovX, _fovY, _fovRadius, oldX, oldY, oldRadius);
+    }
+
+    /**
+     * Helper for addFieldOfViewChanges. Adds the cells of the diamond around (x, y) whose
+     * field of view status differs between the current field of view and the old one.
+     */
+    private void addDiamond(int x, int y, int radius, int oldX, int oldY, int oldRadius) {
+        for (int i = Math.max(0, x - radius); i <= Math.min(_width - 1, x + radius); i++) {
+            int reach = radius - Math.abs(i - x);
+            for (int j = Math.max(0, y - reach); j <= Math.min(_height - 1, y + reach); j++) {
+                boolean wasIn = oldRadius >= 0 && !(i == oldX && j == oldY)
+                        && Math.abs(i - oldX) + Math.abs(j - oldY) <= oldRadius;
+                if (wasIn != inFieldOfView(i, j)) {
+                    _delta.add(index(i, j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tile ID, dark flag and path flag of cell i packed into one int, to tell
+     * whether a change did anything.
+     */
+    private int state(int i) {
+        return ((_ids[i] & 0xFF) << 2) | (getBit(_dark, i) ? DARK : 0)
+                | (getBit(_path, i) ? PATH : 0);
+    }
+
+    /**
+     * Notes that cell i's tile or dark flag is being set, for nextChangedCell.
+     */
+    private void touch(int i) {
+        if (_touched != null) {
+            _touched[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private TETile variant(int id, boolean dark, boolean path) {
+        return _variants[id * 4 + (dark ? DARK : 0) + (path ? PATH : 0)];
+    }
+
+    private static boolean getBit(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void setBit(long[] bits, int i, boolean value) {
+        if (value) {
+            bits[i >>> 6] |= 1L << i;
+        } else {
+            bits[i >>> 6] &= ~(1L << i);
+        }
+    }
+}